@@ -0,0 +1,34 @@
+package gitlet;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/** Runs the gitlet benchmarks with the GC profiler, so that each one
+ *  reports the bytes it allocates per operation (gc.alloc.rate.norm)
+ *  beside its operations per second.
+ *
+ *  Usage: java -jar target/benchmarks.jar [JMH OPTIONS], for example
+ *  "-p commits=1000 -p files=500 merge" to measure merge on a larger
+ *  repository.  With no benchmark named, all of them run.
+ *  @author skye-ye
+ */
+public class Benchmarks {
+
+    /** Run the benchmarks selected by the JMH options ARGS. */
+    public static void main(String[] args)
+            throws CommandLineOptionException, RunnerException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(commandLine).addProfiler(GCProfiler.class);
+        if (commandLine.getIncludes().isEmpty()) {
+            builder.include(RepositoryBenchmark.class.getSimpleName());
+        }
+        Options options = builder.build();
+        new Runner(options).run();
+    }
+}
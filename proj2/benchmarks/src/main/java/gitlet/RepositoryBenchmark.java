@@ -0,0 +1,224 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static gitlet.Utils.*;
+
+/** Throughput of the gitlet commands on a repository built by
+ *  RepositoryGenerator, whose shape is given by the parameters.
+ *
+ *  Repository finds its repository through the user.dir property when
+ *  the class is loaded, so each benchmark runs in a forked JVM that sets
+ *  it to a new temporary directory before touching Repository.  Output of
+ *  the commands is discarded.  The checkout and merge benchmarks need a
+ *  branch that has diverged from master, so the trial fails at once if
+ *  the generated history has none.  The merge benchmark resets master to
+ *  its generated head before each merge, and the fetch benchmark fetches
+ *  the whole history into a new empty repository each time.
+ *  @author skye-ye
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class RepositoryBenchmark {
+
+    /** Number of commits after the first. */
+    @Param("200")
+    public int commits;
+    /** Number of files. */
+    @Param("100")
+    public int files;
+    /** Number of branches, master included. */
+    @Param("4")
+    public int branches;
+    /** Probability that a commit is a merge. */
+    @Param("0.1")
+    public double mergeDensity;
+    /** Smallest file size in bytes. */
+    @Param("256")
+    public int minSize;
+    /** Largest file size in bytes. */
+    @Param("65536")
+    public int maxSize;
+
+    /** The temporary directory of the repository and its copies. */
+    private File root;
+    /** An empty repository, as left by init. */
+    private File emptyRepository;
+    /** The head of master as generated. */
+    private String head;
+    /** A branch that has diverged from master. */
+    private String otherBranch;
+    /** Standard output before the benchmark. */
+    private PrintStream stdout;
+    /** Number of calls of the benchmarks that write a file. */
+    private int edits;
+
+    /** Build the repository. */
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        root = Files.createTempDirectory("gitlet-bench").toFile();
+        File work = join(root, "work");
+        work.mkdir();
+        System.setProperty("user.dir", work.getPath());
+        if (!Repository.CWD.equals(work)) {
+            throw new IllegalStateException("Repository was loaded before "
+                    + "the benchmark repository was chosen");
+        }
+        stdout = System.out;
+
+        /* Keep a copy of an empty repository for fetch */
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        Main.run(new String[] {"init"});
+        emptyRepository = join(root, "empty");
+        copy(Repository.GITLET_DIR, emptyRepository);
+        delete(Repository.GITLET_DIR);
+
+        List<String> names = new RepositoryGenerator().commits(commits)
+                .files(files).branches(branches).mergeDensity(mergeDensity)
+                .sizes(minSize, maxSize).generate();
+        head = RefTransaction.read(Repository.GITLET_DIR, "HEAD");
+        CommitGraph graph = CommitGraph.fromDir(Repository.GITLET_DIR);
+        otherBranch = null;
+        for (String name : names.subList(1, names.size())) {
+            String hash = RefTransaction.read(Repository.GITLET_DIR,
+                    "heads/" + name);
+            if (!graph.isAncestor(hash, head)
+                    && !graph.isAncestor(head, hash)) {
+                otherBranch = name;
+                break;
+            }
+        }
+        if (otherBranch == null) {
+            throw new IllegalStateException("No generated branch diverged "
+                    + "from master, so checkout and merge have nothing to "
+                    + "do; use more commits or branches");
+        }
+    }
+
+    /** Remove the repository. */
+    @TearDown(Level.Trial)
+    public void cleanUp() throws IOException {
+        System.setOut(stdout);
+        delete(root);
+    }
+
+    /** Resets master to its generated head before each merge. */
+    @State(Scope.Thread)
+    public static class MergeState {
+        /** Reset master to the head of REPO. */
+        @Setup(Level.Invocation)
+        public void reset(RepositoryBenchmark repo) throws IOException {
+            Main.run(new String[] {"reset", repo.head});
+        }
+    }
+
+    /** A new empty repository to fetch into for each fetch. */
+    @State(Scope.Thread)
+    public static class FetchState {
+        /** The .gitlet directory of the repository. */
+        private File target;
+
+        /** Copy the empty repository of REPO. */
+        @Setup(Level.Invocation)
+        public void create(RepositoryBenchmark repo) throws IOException {
+            repo.edits += 1;
+            target = join(repo.root, "fetch" + repo.edits);
+            copy(repo.emptyRepository, target);
+        }
+
+        /** Remove the repository. */
+        @TearDown(Level.Invocation)
+        public void remove() throws IOException {
+            delete(target);
+        }
+    }
+
+    @Benchmark
+    public void status() throws IOException {
+        Main.run(new String[] {"status"});
+    }
+
+    @Benchmark
+    public void add() throws IOException {
+        edit();
+        Main.run(new String[] {"add", RepositoryGenerator.fileName(0)});
+    }
+
+    @Benchmark
+    public void commit() throws IOException {
+        edit();
+        Main.run(new String[] {"add", RepositoryGenerator.fileName(0)});
+        Main.run(new String[] {"commit", "benchmark commit " + edits});
+    }
+
+    @Benchmark
+    public void checkout() throws IOException {
+        edits += 1;
+        Main.run(new String[] {"checkout",
+            edits % 2 == 0 ? "master" : otherBranch});
+    }
+
+    @Benchmark
+    public void merge(MergeState state) throws IOException {
+        Main.run(new String[] {"merge", otherBranch});
+    }
+
+    @Benchmark
+    public List<String> fetch(FetchState state) {
+        return Transfer.send(Repository.GITLET_DIR, state.target, head);
+    }
+
+    /** Give the first file new contents. */
+    private void edit() {
+        edits += 1;
+        writeContents(join(Repository.CWD, RepositoryGenerator.fileName(0)),
+                "benchmark edit " + edits + "\n");
+    }
+
+    /** Copy the directory FROM to TO, which does not exist. */
+    private static void copy(File from, File to) throws IOException {
+        Path source = from.toPath();
+        try (Stream<Path> paths = Files.walk(source)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                Files.copy(path, to.toPath().resolve(source.relativize(path)));
+            }
+        }
+    }
+
+    /** Delete FILE and everything under it. */
+    private static void delete(File file) throws IOException {
+        try (Stream<Path> paths = Files.walk(file.toPath())) {
+            for (Path path : (Iterable<Path>) paths
+                    .sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
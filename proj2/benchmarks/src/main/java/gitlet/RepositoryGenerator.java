@@ -0,0 +1,220 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static gitlet.Utils.*;
+
+/** Builds a synthetic gitlet repository of a given shape in the current
+ *  working directory, the same for the same seed.
+ *
+ *  The first commit adds FILES text files whose sizes are drawn
+ *  log-uniformly between MINSIZE and MAXSIZE bytes, and BRANCHES - 1
+ *  branches fan out from it beside master.  Each further commit is made
+ *  on a random branch: with probability MERGEDENSITY it merges another
+ *  random branch into it, and otherwise it rewrites a few lines of one
+ *  to three random files.  A merge that has nothing to do, or that only
+ *  fast-forwards, is replaced by an ordinary commit, so that there are
+ *  always COMMITS commits besides the initial one.  Master is checked
+ *  out at the end.
+ *
+ *  Usage: java gitlet.RepositoryGenerator [COMMITS [FILES [BRANCHES
+ *  [MERGEDENSITY [MINSIZE [MAXSIZE [SEED]]]]]]], run in an empty
+ *  directory.
+ *  @author skye-ye
+ */
+class RepositoryGenerator {
+
+    /** Length of a generated line, newline included. */
+    static final int LINE_LENGTH = 40;
+
+    /** Number of commits after the first. */
+    private int commits = 200;
+    /** Number of files. */
+    private int files = 100;
+    /** Number of branches, master included. */
+    private int branches = 4;
+    /** Probability that a commit is a merge. */
+    private double mergeDensity = 0.1;
+    /** Smallest file size in bytes. */
+    private int minSize = 256;
+    /** Largest file size in bytes. */
+    private int maxSize = 64 * 1024;
+    /** Seed of the random choices. */
+    private long seed = 61;
+
+    /** Set the number of commits after the first to COMMITS. */
+    RepositoryGenerator commits(int commits) {
+        this.commits = commits;
+        return this;
+    }
+
+    /** Set the number of files to FILES. */
+    RepositoryGenerator files(int files) {
+        this.files = files;
+        return this;
+    }
+
+    /** Set the number of branches, master included, to BRANCHES. */
+    RepositoryGenerator branches(int branches) {
+        this.branches = branches;
+        return this;
+    }
+
+    /** Set the probability that a commit is a merge to MERGEDENSITY. */
+    RepositoryGenerator mergeDensity(double mergeDensity) {
+        this.mergeDensity = mergeDensity;
+        return this;
+    }
+
+    /** Draw file sizes between MINSIZE and MAXSIZE bytes. */
+    RepositoryGenerator sizes(int minSize, int maxSize) {
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        return this;
+    }
+
+    /** Set the seed of the random choices to SEED. */
+    RepositoryGenerator seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /** Build the repository in Repository.CWD, which must be empty, and
+     *  return the name of each branch, master first. */
+    List<String> generate() throws IOException {
+        Random random = new Random(seed);
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            /* Create the files and the branches */
+            run("init");
+            for (int i = 0; i < files; i += 1) {
+                int size = (int) Math.round(minSize * Math.pow(
+                        (double) maxSize / minSize, random.nextDouble()));
+                writeContents(join(Repository.CWD, fileName(i)),
+                        (Object) lines(random, Math.max(1,
+                                size / LINE_LENGTH)));
+                run("add", fileName(i));
+            }
+            run("commit", "generated files");
+            List<String> names = new ArrayList<>();
+            names.add("master");
+            for (int i = 1; i < branches; i += 1) {
+                names.add("b" + i);
+                run("branch", "b" + i);
+            }
+
+            /* Grow the history */
+            String current = "master";
+            for (int i = 1; i <= commits; i += 1) {
+                String branch = names.get(random.nextInt(names.size()));
+                if (!branch.equals(current)) {
+                    run("checkout", branch);
+                    current = branch;
+                }
+                if (names.size() > 1 && random.nextDouble() < mergeDensity
+                        && merge(random, names, current)) {
+                    continue;
+                }
+                edit(random, i);
+            }
+            if (!current.equals("master")) {
+                run("checkout", "master");
+            }
+            return names;
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    /** Merge a random branch of NAMES other than CURRENT into CURRENT.
+     *  Returns true iff that made a commit. */
+    private boolean merge(Random random, List<String> names, String current)
+            throws IOException {
+        String given = names.get(random.nextInt(names.size() - 1));
+        if (given.equals(current)) {
+            given = names.get(names.size() - 1);
+        }
+        String head = RefTransaction.read(Repository.GITLET_DIR, "HEAD");
+        try {
+            run("merge", given);
+        } catch (GitletException excp) {
+            return false;
+        }
+        return !head.equals(RefTransaction.read(Repository.GITLET_DIR,
+                "HEAD"));
+    }
+
+    /** Make commit number I, rewriting some lines of one to three random
+     *  files. */
+    private void edit(Random random, int i) throws IOException {
+        int count = 1 + random.nextInt(3);
+        for (int j = 0; j < count; j += 1) {
+            String name = fileName(random.nextInt(files));
+            File file = join(Repository.CWD, name);
+            String[] lines = readContentsAsString(file).split("\n", -1);
+            int changed = 1 + random.nextInt(3);
+            for (int k = 0; k < changed; k += 1) {
+                lines[random.nextInt(Math.max(1, lines.length - 1))] =
+                        lines(random, 1).trim();
+            }
+            writeContents(file, String.join("\n", lines));
+            run("add", name);
+        }
+        run("commit", "generated commit " + i);
+    }
+
+    /** Return COUNT random lines of text. */
+    private static String lines(Random random, int count) {
+        StringBuilder result = new StringBuilder(count * LINE_LENGTH);
+        for (int i = 0; i < count; i += 1) {
+            for (int j = 0; j < LINE_LENGTH - 1; j += 1) {
+                result.append((char) ('a' + random.nextInt(26)));
+            }
+            result.append('\n');
+        }
+        return result.toString();
+    }
+
+    /** Return the name of file number I. */
+    static String fileName(int i) {
+        return "f" + i + ".txt";
+    }
+
+    /** Run the gitlet command ARGS. */
+    private static void run(String... args) throws IOException {
+        Main.run(args);
+    }
+
+    /** Generate a repository in the current directory with the shape
+     *  given by ARGS, as described above. */
+    public static void main(String[] args) throws IOException {
+        RepositoryGenerator generator = new RepositoryGenerator();
+        if (args.length > 0) {
+            generator.commits(Integer.parseInt(args[0]));
+        }
+        if (args.length > 1) {
+            generator.files(Integer.parseInt(args[1]));
+        }
+        if (args.length > 2) {
+            generator.branches(Integer.parseInt(args[2]));
+        }
+        if (args.length > 3) {
+            generator.mergeDensity(Double.parseDouble(args[3]));
+        }
+        if (args.length > 5) {
+            generator.sizes(Integer.parseInt(args[4]),
+                    Integer.parseInt(args[5]));
+        }
+        if (args.length > 6) {
+            generator.seed(Long.parseLong(args[6]));
+        }
+        generator.generate();
+    }
+}
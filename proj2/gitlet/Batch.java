@@ -0,0 +1,126 @@
+package gitlet;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static gitlet.Utils.*;
+
+/** Runs many gitlet commands in one process, one per line of input, for
+ *  scripts that would otherwise start a JVM and read and write the stage
+ *  for every command.
+ *
+ *  A line holds a command and its operands as they would be given to
+ *  gitlet, separated by blanks; an operand holding blanks is quoted with
+ *  '...' or "...", and within double quotes a backslash escapes the next
+ *  character.  Blank lines are skipped.  Each command prints exactly what
+ *  it prints on its own, and a failing command does not stop the batch.
+ *
+ *  The Cache keeps the stage, HEAD and the rest in memory.  Commands that
+ *  only move the current branch (add, rm, commit, checkout and those that
+ *  only read) defer their writes of the stage, the file index and the
+ *  refs.  The deferred state is flushed, with one fsync of the ref log,
+ *  at the end of the batch, at a "checkpoint" line, and before any other
+ *  command, which then runs as it would on its own.
+ *  @author skye-ye
+ */
+class Batch {
+
+    /** The line that flushes the deferred state. */
+    static final String CHECKPOINT = "checkpoint";
+
+    /** The commands that may run with deferred writes. */
+    private static final Set<String> DEFERRABLE = new HashSet<>(Arrays.asList(
+            "add", "rm", "commit", "log", "global-log", "find", "status",
+            "checkout", "diff", "stats"));
+
+    /** Run the commands read from INPUT. */
+    static void run(InputStream input) throws IOException {
+        Cache.enable();
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(input, StandardCharsets.UTF_8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    List<String> args = split(line);
+                    if (args.isEmpty()) {
+                        continue;
+                    }
+                    if (args.size() == 1 && args.get(0).equals(CHECKPOINT)) {
+                        flush();
+                        continue;
+                    }
+                    boolean defer = DEFERRABLE.contains(args.get(0));
+                    if (!defer) {
+                        flush();
+                    }
+                    Cache.defer(defer);
+                    RefTransaction.defer(defer);
+                    Main.run(args.toArray(new String[0]));
+                } catch (GitletException excp) {
+                    System.out.println(excp.getMessage());
+                    Cache.clear();
+                }
+            }
+        } finally {
+            flush();
+            Cache.defer(false);
+            RefTransaction.defer(false);
+        }
+    }
+
+    /** Write the deferred stage and file index, then commit the deferred
+     *  ref updates. */
+    private static void flush() {
+        Cache.flush();
+        RefTransaction.flush();
+    }
+
+    /** Return the command and operands on LINE. */
+    private static List<String> split(String line) {
+        List<String> args = new ArrayList<>();
+        StringBuilder arg = new StringBuilder();
+        boolean inArg = false;
+        char quote = 0;
+        for (int i = 0; i < line.length(); i += 1) {
+            char c = line.charAt(i);
+            if (quote == '"' && c == '\\' && i + 1 < line.length()) {
+                i += 1;
+                arg.append(line.charAt(i));
+            } else if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                } else {
+                    arg.append(c);
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+                inArg = true;
+            } else if (Character.isWhitespace(c)) {
+                if (inArg) {
+                    args.add(arg.toString());
+                    arg.setLength(0);
+                    inArg = false;
+                }
+            } else {
+                arg.append(c);
+                inArg = true;
+            }
+        }
+        if (quote != 0) {
+            throw error("Unterminated quote.");
+        }
+        if (inArg) {
+            args.add(arg.toString());
+        }
+        return args;
+    }
+}
@@ -0,0 +1,78 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+/** Bloom filters of strings, such as the paths a commit changed.
+ *
+ *  A filter is a bit array of BITS_PER_KEY bits per key, in which each
+ *  key sets HASHES bits chosen by double hashing of a 64-bit FNV-1a hash
+ *  of its UTF-8 bytes, mixed so that similar paths get unrelated bits.
+ *  A key whose bits are not all set was certainly not added; one whose
+ *  bits are may have been.  A filter of more than MAX_KEYS keys is
+ *  replaced by a single byte of ones, which answers "maybe" to
+ *  everything, and a filter of no keys is a single zero byte.
+ *  @author skye-ye
+ */
+class BloomFilter {
+
+    /** Bits of the filter per key, for about 1% false positives. */
+    static final int BITS_PER_KEY = 10;
+    /** Number of bits set per key. */
+    static final int HASHES = 7;
+    /** Largest number of keys kept in a filter. */
+    static final int MAX_KEYS = 512;
+
+    /** Return the filter of KEYS. */
+    static byte[] of(Collection<String> keys) {
+        if (keys.size() > MAX_KEYS) {
+            return new byte[] {(byte) 0xff};
+        }
+        byte[] filter = new byte[Math.max(1,
+                (keys.size() * BITS_PER_KEY + 7) / 8)];
+        int bits = filter.length * 8;
+        for (String key : keys) {
+            long hash = hash(key);
+            for (int i = 0; i < HASHES; i += 1) {
+                int bit = index(hash, i, bits);
+                filter[bit >>> 3] |= (byte) (1 << (bit & 7));
+            }
+        }
+        return filter;
+    }
+
+    /** Return true iff the key whose hash is HASH may be in FILTER. */
+    static boolean mightContain(byte[] filter, long hash) {
+        int bits = filter.length * 8;
+        for (int i = 0; i < HASHES; i += 1) {
+            int bit = index(hash, i, bits);
+            if ((filter[bit >>> 3] & (1 << (bit & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the hash of KEY, computed once for all the filters it is
+     *  looked up in. */
+    static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    /** Return the I-th bit of a key whose hash is HASH in a filter of BITS
+     *  bits. */
+    private static int index(long hash, int i, int bits) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        return Math.floorMod(h1 + i * h2, bits);
+    }
+}
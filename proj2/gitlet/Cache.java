@@ -0,0 +1,214 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/** Decoded repository files kept in memory.
+ *
+ *  An object file, such as a commit, never changes once written, so it
+ *  is cached by name alone, in every process: merge, log, push and fetch
+ *  read the same commits many times, and each is decoded only once.  At
+ *  most MAX_OBJECTS objects are kept, dropping the least recently used
+ *  first, and the object-cache.hits and object-cache.misses metrics
+ *  count the lookups.  The cache may be used from several threads.
+ *
+ *  Files that can change are only kept between the commands served by a
+ *  daemon or run by a batch; otherwise every lookup simply loads them.
+ *  Such a file, for example the staging file, is cached with its stamp:
+ *  its modification time, size and file key (its inode).  A lookup whose
+ *  file no longer has the same stamp was changed by someone else, and
+ *  loads it again.  As in FileIndex, an entry whose file was modified
+ *  less than RACY_NANOS before it was cached is "racy": the file may be
+ *  rewritten in place with the same size within the same timestamp
+ *  granule, leaving its stamp unchanged, so such an entry is never
+ *  trusted and the file is loaded again.  Cached values are shared: a
+ *  command that changes one must either save it, and put it back with
+ *  the new stamp, or fail, after which the daemon clears the cache.
+ *
+ *  A batch may also defer the writes of changeable files: their new
+ *  contents then stay in the cache, where later commands find them, and
+ *  are written when the batch flushes.
+ *  @author skye-ye
+ */
+class Cache {
+
+    /** A cached value and the stamp of its file when it was read. */
+    private static class Entry {
+        /** The stamp of the file. */
+        final List<Object> stamp;
+        /** The decoded contents of the file. */
+        final Object value;
+        /** True iff the file was modified too recently for its stamp to
+         *  show a later rewrite. */
+        final boolean racy;
+
+        Entry(List<Object> stamp, Object value) {
+            this.stamp = stamp;
+            this.value = value;
+            this.racy = stamp != null && isRacy(stamp);
+        }
+    }
+
+    /** Entries whose file was modified less than this many nanoseconds
+     *  before they were cached are not trusted.  Covers the coarsest
+     *  common timestamp granule, two seconds on FAT file systems. */
+    static final long RACY_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    /** Largest number of decoded objects kept. */
+    static final int MAX_OBJECTS = 8192;
+
+    /** True iff caching of changeable files is enabled. */
+    private static volatile boolean enabled;
+    /** True iff writes of changeable files are deferred. */
+    private static volatile boolean deferring;
+    /** The cached changeable files, keyed by file. */
+    private static final Map<File, Entry> FILES = new ConcurrentHashMap<>();
+    /** The cached immutable objects, keyed by file, from the least to the
+     *  most recently used.  Guarded by its own lock. */
+    private static final LinkedHashMap<File, Object> OBJECTS =
+            new LinkedHashMap<File, Object>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<File, Object> eldest) {
+                    return size() > MAX_OBJECTS;
+                }
+            };
+    /** The deferred writes, keyed by file, in the order they were first
+     *  deferred. */
+    private static final Map<File, Runnable> PENDING =
+            Collections.synchronizedMap(new LinkedHashMap<>());
+
+    /** Keep decoded changeable files in memory from now on. */
+    static void enable() {
+        enabled = true;
+    }
+
+    /** Defer writes of changeable files from now on iff DEFER. */
+    static void defer(boolean defer) {
+        deferring = defer;
+    }
+
+    /** Forget everything cached, except the files with deferred writes. */
+    static void clear() {
+        FILES.keySet().removeIf(file -> !PENDING.containsKey(file));
+        synchronized (OBJECTS) {
+            OBJECTS.clear();
+        }
+    }
+
+    /** Write FILE, whose decoded contents are now VALUE, with WRITER, or
+     *  only remember VALUE until the next flush if writes are deferred. */
+    static void write(File file, Object value, Runnable writer) {
+        if (enabled && deferring) {
+            PENDING.put(file, writer);
+            FILES.put(file, new Entry(null, value));
+            return;
+        }
+        writer.run();
+        put(file, value);
+    }
+
+    /** Perform the deferred writes. */
+    static void flush() {
+        List<Map.Entry<File, Runnable>> writes;
+        synchronized (PENDING) {
+            writes = new ArrayList<>(PENDING.entrySet());
+            PENDING.clear();
+        }
+        for (Map.Entry<File, Runnable> write : writes) {
+            write.getValue().run();
+            put(write.getKey(), FILES.get(write.getKey()).value);
+        }
+    }
+
+    /** Return the contents of FILE as decoded by LOADER, from the cache if
+     *  FILE has not changed since it was cached. */
+    static <T> T file(File file, Class<T> type, Function<File, T> loader) {
+        if (!enabled) {
+            return loader.apply(file);
+        }
+        Entry entry = FILES.get(file);
+        if (entry != null && PENDING.containsKey(file)) {
+            Metrics.count("cache.hits", 1);
+            return type.cast(entry.value);
+        }
+        List<Object> stamp = stamp(file);
+        if (stamp != null && entry != null && !entry.racy
+                && entry.stamp.equals(stamp)
+                && type.isInstance(entry.value)) {
+            Metrics.count("cache.hits", 1);
+            return type.cast(entry.value);
+        }
+        Metrics.count("cache.misses", 1);
+        T value = loader.apply(file);
+        if (stamp != null) {
+            FILES.put(file, new Entry(stamp, value));
+        }
+        return value;
+    }
+
+    /** Record that VALUE is the decoded contents of FILE as just written. */
+    static void put(File file, Object value) {
+        if (!enabled) {
+            return;
+        }
+        List<Object> stamp = stamp(file);
+        if (stamp == null) {
+            FILES.remove(file);
+        } else {
+            FILES.put(file, new Entry(stamp, value));
+        }
+    }
+
+    /** Return the immutable object FILE as decoded by LOADER, from the
+     *  cache if it was decoded recently.  LOADER runs without holding the
+     *  lock, so threads decoding different objects do not wait for each
+     *  other. */
+    static <T> T object(File file, Class<T> type, Function<File, T> loader) {
+        Object value;
+        synchronized (OBJECTS) {
+            value = OBJECTS.get(file);
+        }
+        if (type.isInstance(value)) {
+            Metrics.count("object-cache.hits", 1);
+            return type.cast(value);
+        }
+        Metrics.count("object-cache.misses", 1);
+        T result = loader.apply(file);
+        synchronized (OBJECTS) {
+            OBJECTS.put(file, result);
+        }
+        return result;
+    }
+
+    /** Return true iff the file with STAMP was modified less than
+     *  RACY_NANOS ago. */
+    private static boolean isRacy(List<Object> stamp) {
+        long now = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+        return now - (Long) stamp.get(0) < RACY_NANOS;
+    }
+
+    /** Return the stamp of FILE, or null if it cannot be read. */
+    private static List<Object> stamp(File file) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(
+                    file.toPath(), BasicFileAttributes.class);
+            return Arrays.asList(
+                    attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+                    attributes.size(), attributes.fileKey());
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static gitlet.Utils.*;
+
+/** Chunked blobs: large files split at content-defined boundaries, so
+ *  that versions of a file, or files, that share long runs of bytes share
+ *  the chunks holding them.
+ *
+ *  Boundaries are found as in FastCDC.  A gear hash, shifted left by one
+ *  bit and added to a random value of each byte, is computed from
+ *  MIN_SIZE bytes into a chunk, and a chunk ends where its top bits are
+ *  all zero: 15 of them before AVERAGE_SIZE, so that small chunks are
+ *  rare, and 11 after it, or at MAX_SIZE bytes at the latest.  Since
+ *  boundaries only depend on the last 64 bytes, an edit moves at most
+ *  the boundaries next to it and every other chunk stays the same.
+ *
+ *  Each chunk is an object of its own under objects/chunks, named by its
+ *  SHA-1 hash.  The blob itself keeps the id of the whole file, so trees,
+ *  the stage and the file index do not change, but its stored form is a
+ *  chunk list in the Codec encoding: the file size, the number of chunks
+ *  and the id and size of each chunk.  Blobs of at least THRESHOLD bytes
+ *  are chunked, and so are the rare smaller ones whose contents start
+ *  like a chunk list, so that a stored blob is never mistaken for one.
+ *  @author skye-ye
+ */
+class Chunker {
+
+    /** Smallest file stored as a chunked blob. */
+    static final int THRESHOLD = 256 * 1024;
+    /** Smallest chunk, except for the last one of a file. */
+    static final int MIN_SIZE = 2 * 1024;
+    /** Size from which boundaries become more likely. */
+    static final int AVERAGE_SIZE = 8 * 1024;
+    /** Largest chunk. */
+    static final int MAX_SIZE = 64 * 1024;
+    /** Name of the file of chunking statistics in a .gitlet directory. */
+    static final String STATS_NAME = "chunk-stats";
+
+    /** Format version of chunk lists. */
+    private static final int FORMAT_VERSION = 1;
+    /** Mask of the hash bits tested before AVERAGE_SIZE. */
+    private static final long SMALL_MASK = -1L << (64 - 15);
+    /** Mask of the hash bits tested from AVERAGE_SIZE on. */
+    private static final long LARGE_MASK = -1L << (64 - 11);
+    /** Seed of the gear table, fixed so that every repository cuts the
+     *  same contents at the same places. */
+    private static final long GEAR_SEED = 0x6769746c6574L;
+    /** The random value added to the hash for each byte value. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(GEAR_SEED);
+        for (int i = 0; i < GEAR.length; i += 1) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /** The chunk list of a chunked blob. */
+    static class Manifest {
+        /** The size of the whole file. */
+        final long size;
+        /** The id of each chunk, in order. */
+        final List<String> ids;
+        /** The size of each chunk, in order. */
+        final List<Integer> sizes;
+
+        Manifest(long size, List<String> ids, List<Integer> sizes) {
+            this.size = size;
+            this.ids = ids;
+            this.sizes = sizes;
+        }
+
+        /** Return the stored form of this chunk list. */
+        byte[] toBytes() {
+            Codec.Writer out = new Codec.Writer(Codec.CHUNKS, FORMAT_VERSION);
+            out.writeVarint(size);
+            out.writeVarint(ids.size());
+            for (int i = 0; i < ids.size(); i += 1) {
+                out.writeId(ObjectId.fromHex(ids.get(i)));
+                out.writeVarint(sizes.get(i));
+            }
+            return out.toByteArray();
+        }
+
+        /** Return the chunk list whose stored form is BYTES. */
+        static Manifest fromBytes(byte[] bytes) {
+            Codec.Reader in = new Codec.Reader(bytes, Codec.CHUNKS,
+                    FORMAT_VERSION);
+            long size = in.readVarint();
+            int count = (int) in.readVarint();
+            List<String> ids = new ArrayList<>(count);
+            List<Integer> sizes = new ArrayList<>(count);
+            for (int i = 0; i < count; i += 1) {
+                ids.add(in.readId().toHex());
+                sizes.add((int) in.readVarint());
+            }
+            return new Manifest(size, ids, sizes);
+        }
+    }
+
+    /** Return true iff the stored blob BYTES is a chunk list. */
+    static boolean isManifest(byte[] bytes) {
+        return Codec.isEncoded(bytes, Codec.CHUNKS);
+    }
+
+    /** Return true iff the file FILE starts like a chunk list, reading
+     *  only its first bytes. */
+    static boolean isManifest(File file) {
+        byte[] head = new byte[3];
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            return in.read(head) == head.length && isManifest(head);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return true iff the working file FILE should be stored as a
+     *  chunked blob. */
+    static boolean wanted(File file) {
+        return file.length() >= THRESHOLD || isManifest(file);
+    }
+
+    /** Return true iff CONTENTS should be stored as a chunked blob. */
+    static boolean wanted(byte[] contents) {
+        return contents.length >= THRESHOLD || isManifest(contents);
+    }
+
+    /** Return the chunk list of the blob named by LOOSE, or null if it is
+     *  not chunked. */
+    static Manifest manifestOf(File loose) {
+        if (loose.isFile()) {
+            return isManifest(loose)
+                    ? Manifest.fromBytes(readContents(loose)) : null;
+        }
+        byte[] stored = ObjectStore.read(loose);
+        return isManifest(stored) ? Manifest.fromBytes(stored) : null;
+    }
+
+    /** Store the contents of IN as a chunked blob under OBJECTSDIR,
+     *  reading them only once, and return the id of the blob.  Chunks
+     *  already present are not written again. */
+    static String store(InputStream in, File objectsDir) {
+        long start = System.nanoTime();
+        File chunksDir = join(objectsDir, "chunks");
+        if (!chunksDir.isDirectory()) {
+            chunksDir.mkdirs();
+        }
+        List<String> ids = new ArrayList<>();
+        List<Integer> sizes = new ArrayList<>();
+        long fresh = 0;
+        long size = 0;
+        try {
+            MessageDigest whole = MessageDigest.getInstance("SHA-1");
+            byte[] buffer = new byte[BUFFER_SIZE];
+            byte[] chunk = new byte[MAX_SIZE];
+            int length = 0;
+            long hash = 0;
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                whole.update(buffer, 0, n);
+                size += n;
+                for (int i = 0; i < n; i += 1) {
+                    int b = buffer[i] & 0xff;
+                    chunk[length] = (byte) b;
+                    length += 1;
+                    if (length < MIN_SIZE) {
+                        continue;
+                    }
+                    hash = (hash << 1) + GEAR[b];
+                    long mask = length < AVERAGE_SIZE ? SMALL_MASK : LARGE_MASK;
+                    if ((hash & mask) == 0 || length == MAX_SIZE) {
+                        fresh += writeChunk(chunksDir, chunk, length, ids,
+                                sizes);
+                        length = 0;
+                        hash = 0;
+                    }
+                }
+            }
+            if (length > 0) {
+                fresh += writeChunk(chunksDir, chunk, length, ids, sizes);
+            }
+
+            String id = PackFile.toHex(whole.digest());
+            File blob = join(objectsDir, "blobs", id);
+            if (!ObjectStore.exists(blob)) {
+                byte[] manifest = new Manifest(size, ids, sizes).toBytes();
+                writeAtomically(blob, manifest, manifest.length);
+            }
+            Metrics.count("chunks.written", fresh);
+            Metrics.count("chunks.reused", ids.size() - fresh);
+            recordStats(objectsDir.getParentFile(), size,
+                    System.nanoTime() - start);
+            return id;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Store CONTENTS as a chunked blob under OBJECTSDIR and return its
+     *  id. */
+    static String store(byte[] contents, File objectsDir) {
+        return store(new ByteArrayInputStream(contents), objectsDir);
+    }
+
+    /** Return the contents of the chunked blob MANIFEST, whose chunks are
+     *  in the objects directory OBJECTSDIR.  A blob too large for one
+     *  array is rejected; it can only be written out with the streaming
+     *  form of this method, as ObjectStore.copyTo does. */
+    static byte[] assemble(Manifest manifest, File objectsDir) {
+        if (manifest.size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("chunked blob of "
+                    + manifest.size + " bytes is too large to load");
+        }
+        byte[] result = new byte[(int) manifest.size];
+        int pos = 0;
+        for (String id : manifest.ids) {
+            byte[] chunk = ObjectStore.read(join(objectsDir, "chunks", id));
+            System.arraycopy(chunk, 0, result, pos, chunk.length);
+            pos += chunk.length;
+        }
+        return result;
+    }
+
+    /** Write the contents of the chunked blob MANIFEST, whose chunks are
+     *  in the objects directory OBJECTSDIR, to OUT one chunk at a time. */
+    static void assemble(Manifest manifest, File objectsDir, FileChannel out)
+            throws IOException {
+        for (String id : manifest.ids) {
+            ObjectStore.appendTo(join(objectsDir, "chunks", id), out);
+        }
+    }
+
+    /** Read the chunking statistics of the repository in GITLETDIR: the
+     *  number of bytes chunked and the nanoseconds it took. */
+    static long[] readStats(File gitletDir) {
+        File file = join(gitletDir, STATS_NAME);
+        if (!file.isFile()) {
+            return new long[2];
+        }
+        String[] fields = readContentsAsString(file).trim().split(" ");
+        return new long[] {Long.parseLong(fields[0]),
+            Long.parseLong(fields[1])};
+    }
+
+    /** Add BYTES chunked in NANOS nanoseconds to the statistics of the
+     *  repository in GITLETDIR. */
+    private static synchronized void recordStats(File gitletDir, long bytes,
+                                                 long nanos) {
+        long[] stats = readStats(gitletDir);
+        writeContents(join(gitletDir, STATS_NAME), (stats[0] + bytes) + " "
+                + (stats[1] + nanos) + "\n");
+    }
+
+    /** Add the first LENGTH bytes of CHUNK to IDS and SIZES, storing it in
+     *  CHUNKSDIR unless it is already there.  Returns 1 if it was stored,
+     *  0 otherwise. */
+    private static int writeChunk(File chunksDir, byte[] chunk, int length,
+                                  List<String> ids, List<Integer> sizes)
+            throws IOException, NoSuchAlgorithmException {
+        MessageDigest md = MessageDigest.getInstance("SHA-1");
+        md.update(chunk, 0, length);
+        String id = PackFile.toHex(md.digest());
+        ids.add(id);
+        sizes.add(length);
+        File target = join(chunksDir, id);
+        if (ObjectStore.exists(target)) {
+            return 0;
+        }
+        writeAtomically(target, chunk, length);
+        return 1;
+    }
+
+    /** Write the first LENGTH bytes of BYTES to the object file TARGET
+     *  through a temporary file, so that it never exists half written. */
+    private static void writeAtomically(File target, byte[] bytes,
+                                        int length)
+            throws IOException {
+        File temp = ObjectStore.createTempFile(target.getParentFile());
+        try {
+            try (OutputStream out = Files.newOutputStream(temp.toPath())) {
+                out.write(bytes, 0, length);
+            }
+            Files.move(temp.toPath(), target.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE);
+            ObjectStore.written(target);
+        } finally {
+            temp.delete();
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/** The compact binary encoding of commits, stages, trees and the chunk
+ *  lists of chunked blobs.
+ *
+ *  An encoded object starts with the magic byte 'G', a kind byte and a
+ *  format version byte.  Integers are unsigned LEB128 varints (signed
+ *  ones are zigzag encoded first), strings are a varint length followed
+ *  by UTF-8 bytes, and object ids are their 20 raw bytes.  Sorted path
+ *  lists are front-coded: each path stores only the length of the prefix
+ *  it shares with the previous one and the rest of its characters.  The
+ *  prefix never ends inside a surrogate pair, so that both parts are
+ *  well-formed text.
+ *
+ *  Files written with Java serialization start with 0xACED instead, so
+ *  readers can tell the two formats apart.
+ *  @author skye-ye
+ */
+class Codec {
+
+    /** First byte of every encoded object. */
+    static final byte MAGIC = 'G';
+    /** Kind byte of an encoded commit. */
+    static final byte COMMIT = 'c';
+    /** Kind byte of an encoded stage. */
+    static final byte STAGE = 's';
+    /** Kind byte of an encoded tree. */
+    static final byte TREE = 't';
+    /** Kind byte of an encoded chunk list. */
+    static final byte CHUNKS = 'k';
+
+    /** Size of a raw object id. */
+    private static final int ID_SIZE = ObjectId.SIZE;
+
+    /** Return true iff BYTES is an object of kind KIND in this encoding,
+     *  rather than a Java-serialized one. */
+    static boolean isEncoded(byte[] bytes, byte kind) {
+        return bytes.length >= 3 && bytes[0] == MAGIC && bytes[1] == kind;
+    }
+
+    /** A growable output buffer. */
+    static class Writer {
+        /** The bytes written so far. */
+        private byte[] buf = new byte[256];
+        /** The number of bytes written so far. */
+        private int size;
+
+        /** Start an object of kind KIND in format VERSION. */
+        Writer(byte kind, int version) {
+            writeByte(MAGIC);
+            writeByte(kind);
+            writeByte(version);
+        }
+
+        /** Return the bytes written so far. */
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, size);
+        }
+
+        void writeByte(int b) {
+            if (size == buf.length) {
+                buf = Arrays.copyOf(buf, 2 * size);
+            }
+            buf[size] = (byte) b;
+            size += 1;
+        }
+
+        void writeBytes(byte[] bytes) {
+            if (size + bytes.length > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(2 * buf.length,
+                        size + bytes.length));
+            }
+            System.arraycopy(bytes, 0, buf, size, bytes.length);
+            size += bytes.length;
+        }
+
+        /** Write the non-negative VALUE as a varint. */
+        void writeVarint(long value) {
+            while ((value & ~0x7fL) != 0) {
+                writeByte((int) (value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            writeByte((int) value);
+        }
+
+        /** Write VALUE, which may be negative, as a zigzag varint. */
+        void writeSignedVarint(long value) {
+            writeVarint((value << 1) ^ (value >> 63));
+        }
+
+        void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length);
+            writeBytes(bytes);
+        }
+
+        /** Write the id ID. */
+        void writeId(ObjectId id) {
+            if (size + ID_SIZE > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(2 * buf.length,
+                        size + ID_SIZE));
+            }
+            id.copyTo(buf, size);
+            size += ID_SIZE;
+        }
+
+        /** Write the possibly null id ID, preceded by a presence flag. */
+        void writeOptionalId(ObjectId id) {
+            if (id == null) {
+                writeByte(0);
+            } else {
+                writeByte(1);
+                writeId(id);
+            }
+        }
+
+        /** Write the sorted PATHS, front-coded. */
+        void writePaths(List<String> paths) {
+            writeVarint(paths.size());
+            String previous = "";
+            for (String path : paths) {
+                int shared = 0;
+                int limit = Math.min(previous.length(), path.length());
+                while (shared < limit
+                        && previous.charAt(shared) == path.charAt(shared)) {
+                    shared += 1;
+                }
+                if (shared > 0
+                        && Character.isHighSurrogate(path.charAt(shared - 1))) {
+                    shared -= 1;
+                }
+                writeVarint(shared);
+                writeString(path.substring(shared));
+                previous = path;
+            }
+        }
+    }
+
+    /** A reader over an encoded object. */
+    static class Reader {
+        /** The encoded bytes. */
+        private final byte[] buf;
+        /** The position of the next byte to read. */
+        private int pos;
+        /** The format version of the object. */
+        private final int version;
+
+        /** Start reading BYTES, an object of kind KIND written in a format
+         *  version no later than MAXVERSION. */
+        Reader(byte[] bytes, byte kind, int maxVersion) {
+            buf = bytes;
+            if (!isEncoded(bytes, kind)) {
+                throw error("Corrupt gitlet object.");
+            }
+            version = bytes[2];
+            if (version < 1 || version > maxVersion) {
+                throw error("Unsupported gitlet object format %d.", version);
+            }
+            pos = 3;
+        }
+
+        /** Return the format version of the object. */
+        int version() {
+            return version;
+        }
+
+        int readByte() {
+            return buf[pos++] & 0xff;
+        }
+
+        long readVarint() {
+            long result = 0;
+            int shift = 0;
+            while (true) {
+                int b = readByte();
+                result |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+                shift += 7;
+            }
+        }
+
+        long readSignedVarint() {
+            long value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        String readString() {
+            int length = (int) readVarint();
+            String result = new String(buf, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return result;
+        }
+
+        ObjectId readId() {
+            ObjectId result = ObjectId.fromRaw(buf, pos);
+            pos += ID_SIZE;
+            return result;
+        }
+
+        ObjectId readOptionalId() {
+            return readByte() == 0 ? null : readId();
+        }
+
+        /** Read a front-coded path list. */
+        List<String> readPaths() {
+            int count = (int) readVarint();
+            List<String> result = new ArrayList<>(count);
+            String previous = "";
+            for (int i = 0; i < count; i += 1) {
+                int shared = (int) readVarint();
+                if (shared > previous.length() || shared > 0
+                        && Character.isHighSurrogate(
+                                previous.charAt(shared - 1))) {
+                    throw error("Corrupt gitlet object.");
+                }
+                previous = previous.substring(0, shared) + readString();
+                result.add(previous);
+            }
+            return result;
+        }
+    }
+}
@@ -3,6 +3,9 @@ package gitlet;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.io.File;
 
@@ -14,6 +17,21 @@ import static gitlet.Utils.*;
  *  @author skye-ye
  */
 public class Commit implements Serializable {
+    /** Fixed so that commits written by earlier versions stay readable. */
+    private static final long serialVersionUID = -6946108009372073903L;
+    /** The version of the binary encoding written by toBytes. */
+    private static final int FORMAT_VERSION = 1;
+    /** The fields of the Java serialization of earlier versions, which
+     *  held every id as a hexadecimal string and the blobs directly.
+     *  readObject converts them, so the fields below cannot be final. */
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("message", String.class),
+        new ObjectStreamField("time", Instant.class),
+        new ObjectStreamField("firstParent", String.class),
+        new ObjectStreamField("secondParent", String.class),
+        new ObjectStreamField("blobs", HashMap.class),
+    };
+
     /**
      *
      * List all instance variables of the Commit class here with a useful
@@ -22,17 +40,22 @@ public class Commit implements Serializable {
      */
 
     /** The message of this Commit. */
-    private final String message;
+    private String message;
     /** The time of this Commit. */
-    private final Instant time;
+    private Instant time;
     /** The parent of this Commit. */
-    private final String firstParent;
+    private ObjectId firstParent;
     /** The second parent if this Commit is a merge. */
-    private String secondParent;
-    /** The blobs of this Commit. */
-    private final HashMap<String, String> blobs;
-
-    public Commit(String message, String parent, HashMap<String, String> blobs) {
+    private ObjectId secondParent;
+    /** The root tree of this Commit, or null for commits written before
+     *  trees existed, which store their blobs directly. */
+    private ObjectId tree;
+    /** The blobs of this Commit, read from its tree when first needed. */
+    private HashMap<String, ObjectId> blobs;
+    /** The objects directory this Commit's trees are read from. */
+    private transient File objectsDir;
+
+    public Commit(String message, ObjectId parent, ObjectId tree) {
         this.message = message;
         this.firstParent = parent;
         this.secondParent = null;
@@ -41,50 +64,132 @@ public class Commit implements Serializable {
         } else {
             this.time = Instant.now();
         }
-        if (blobs == null) {
-            this.blobs = new HashMap<>();
-        } else {
-            this.blobs = new HashMap<>(blobs);
-        }
+        this.tree = tree;
+    }
+
+    private Commit(String message, Instant time, ObjectId firstParent,
+                   ObjectId secondParent, ObjectId tree,
+                   HashMap<String, ObjectId> blobs) {
+        this.message = message;
+        this.time = time;
+        this.firstParent = firstParent;
+        this.secondParent = secondParent;
+        this.tree = tree;
+        this.blobs = blobs;
     }
 
     public static Commit fromFile(File fileName) {
-        if (!fileName.exists()) {
-            System.out.println("No commit with that id exists.");
-            System.exit(0);
+        if (!ObjectStore.exists(fileName)) {
+            throw error("No commit with that id exists.");
         }
-        return readObject(fileName, Commit.class);
+        return Cache.object(fileName, Commit.class, file -> {
+            byte[] bytes = ObjectStore.read(file);
+            /* Java serialization times itself */
+            long start = Codec.isEncoded(bytes, Codec.COMMIT)
+                    ? Metrics.start() : 0;
+            Commit commit = fromBytes(bytes);
+            Metrics.stop("deserialize", start);
+            Metrics.count("commits.loaded", 1);
+            commit.objectsDir = file.getParentFile().getParentFile();
+            return commit;
+        });
+    }
+
+    /** Return the commit whose stored form is BYTES, in either the binary
+     *  encoding or the Java serialization of earlier versions. */
+    public static Commit fromBytes(byte[] bytes) {
+        if (!Codec.isEncoded(bytes, Codec.COMMIT)) {
+            return deserialize(bytes, Commit.class);
+        }
+        Codec.Reader in = new Codec.Reader(bytes, Codec.COMMIT, FORMAT_VERSION);
+        String message = in.readString();
+        Instant time = Instant.ofEpochSecond(in.readSignedVarint(),
+                in.readVarint());
+        ObjectId firstParent = in.readOptionalId();
+        ObjectId secondParent = in.readOptionalId();
+        return new Commit(message, time, firstParent, secondParent,
+                in.readId(), null);
+    }
+
+    /** Read a commit written with Java serialization by an earlier
+     *  version from IN, turning its ids into ObjectIds. */
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        message = (String) fields.get("message", null);
+        time = (Instant) fields.get("time", null);
+        firstParent = ObjectId.fromHexOrNull(
+                (String) fields.get("firstParent", null));
+        secondParent = ObjectId.fromHexOrNull(
+                (String) fields.get("secondParent", null));
+        Map<?, ?> legacyBlobs = (Map<?, ?>) fields.get("blobs", null);
+        if (legacyBlobs != null) {
+            blobs = new HashMap<>(legacyBlobs.size() * 4 / 3 + 1);
+            for (Map.Entry<?, ?> entry : legacyBlobs.entrySet()) {
+                blobs.put((String) entry.getKey(),
+                        ObjectId.fromHex((String) entry.getValue()));
+            }
+        }
+    }
+
+    /** Return the stored form of this commit in the binary encoding. */
+    public byte[] toBytes() {
+        Codec.Writer out = new Codec.Writer(Codec.COMMIT, FORMAT_VERSION);
+        out.writeString(message);
+        out.writeSignedVarint(time.getEpochSecond());
+        out.writeVarint(time.getNano());
+        out.writeOptionalId(firstParent);
+        out.writeOptionalId(secondParent);
+        out.writeId(getTree());
+        return out.toByteArray();
+    }
+
+    /** Return the root tree of this commit.  For a commit written before
+     *  trees existed, the trees of its blobs are stored first. */
+    public ObjectId getTree() {
+        if (tree == null) {
+            tree = Tree.build(join(getObjectsDir(), "trees"), blobs);
+        }
+        return tree;
+    }
+
+    /** Return true iff this commit stores a root tree rather than a flat
+     *  map of blobs. */
+    public boolean hasTree() {
+        return tree != null;
     }
 
     /** Check if a certain file is in the commit. */
     public boolean containsFile(String fileName) {
-        return blobs.containsKey(fileName);
+        return getBlobHash(fileName) != null;
     }
 
     /** Check if a certain file is in the commit and has the same sha1. */
-    public boolean containsSameFile(String fileName, String sha1) {
-        return blobs.containsKey(fileName) && blobs.get(fileName).equals(sha1);
+    public boolean containsSameFile(String fileName, ObjectId id) {
+        return id.equals(getBlobHash(fileName));
     }
 
-    public HashMap<String, String> getBlobs() {
+    public HashMap<String, ObjectId> getBlobs() {
+        if (blobs == null) {
+            blobs = Tree.flatten(join(getObjectsDir(), "trees"), tree);
+        }
         return blobs;
     }
 
-    public String getBlobHash(String fileName) {
+    /** Return the blob of FILENAME, reading only the trees on its path if
+     *  the whole map has not been read yet. */
+    public ObjectId getBlobHash(String fileName) {
+        if (blobs == null) {
+            return Tree.lookup(join(getObjectsDir(), "trees"), tree, fileName);
+        }
         return blobs.get(fileName);
     }
 
-    public void changeBlobs(HashMap<String, String> newBlobs) {
-        this.blobs.putAll(newBlobs);
-    }
-
-    public void removeBlobs(HashSet<String> fileNames) {
-        for (String fileName : fileNames) {
-            blobs.remove(fileName);
-        }
+    private File getObjectsDir() {
+        return objectsDir == null ? Repository.OBJECTS_DIR : objectsDir;
     }
 
-    public String getFirstParent() {
+    public ObjectId getFirstParent() {
         return firstParent;
     }
 
@@ -93,16 +198,25 @@ public class Commit implements Serializable {
     }
 
     public String getTime() {
+        return formatTime(this.time);
+    }
+
+    public Instant getInstant() {
+        return time;
+    }
+
+    /** Format TIME the way log prints commit dates. */
+    public static String formatTime(Instant time) {
         DateTimeFormatter formatter = DateTimeFormatter.ofPattern("EEE MMM d HH:mm:ss yyyy Z")
                 .withZone(ZoneId.systemDefault());
-        return formatter.format(this.time);
+        return formatter.format(time);
     }
 
-    public void setSecondParent(String secondParent) {
+    public void setSecondParent(ObjectId secondParent) {
         this.secondParent = secondParent;
     }
 
-    public String getSecondParent() {
+    public ObjectId getSecondParent() {
         return secondParent;
     }
 }
@@ -0,0 +1,437 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import static gitlet.Utils.*;
+
+/** The commit graph of a repository: for every commit, the positions of
+ *  its parents and its generation number (one more than the largest
+ *  generation of its parents, with root commits at generation 1).
+ *
+ *  The graph is stored in the commit-graph file of a .gitlet directory as
+ *  fixed-width records (the raw commit id, the raw ids of both parents,
+ *  all zero when absent, and the generation), appended as commits are
+ *  made or fetched.  Commits missing from the file, e.g. in repositories
+ *  written before it existed, are added the first time they are asked
+ *  for, so walks never need to deserialize commit objects twice.  A
+ *  record torn by an interrupted append is cut off when the file is
+ *  loaded, and a file whose records name unknown parents is discarded
+ *  and built again in the same way.
+ *  @author skye-ye
+ */
+class CommitGraph {
+
+    /** Name of the commit-graph file inside a .gitlet directory. */
+    static final String FILE_NAME = "commit-graph";
+
+    /** Size of a raw commit id. */
+    private static final int ID_SIZE = ObjectId.SIZE;
+    /** Size of one record. */
+    private static final int RECORD_SIZE = 3 * ID_SIZE + 4;
+    /** Raw id used for a missing parent. */
+    private static final byte[] NO_PARENT = new byte[ID_SIZE];
+    /** The id whose raw form is NO_PARENT. */
+    private static final ObjectId NONE = ObjectId.fromRaw(NO_PARENT);
+
+    /** The commit-graph file. */
+    private final File file;
+    /** The commits directory the graph describes. */
+    private final File commitsDir;
+    /** Commit ids, by position. */
+    private final List<ObjectId> ids = new ArrayList<>();
+    /** Positions, by commit id. */
+    private final HashMap<ObjectId, Integer> positions = new HashMap<>();
+    /** Position of the first parent of each commit, or -1. */
+    private int[] firstParents = new int[16];
+    /** Position of the second parent of each commit, or -1. */
+    private int[] secondParents = new int[16];
+    /** Generation number of each commit. */
+    private int[] generations = new int[16];
+
+    /** Load the commit graph of the repository in GITLETDIR. */
+    static CommitGraph fromDir(File gitletDir) {
+        File commitsDir = join(gitletDir, "objects", "commits");
+        return Cache.file(join(gitletDir, FILE_NAME), CommitGraph.class,
+                file -> new CommitGraph(file, commitsDir));
+    }
+
+    private CommitGraph(File file, File commitsDir) {
+        this.file = file;
+        this.commitsDir = commitsDir;
+        if (!file.exists()) {
+            return;
+        }
+        byte[] bytes = readContents(file);
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        int count = bytes.length / RECORD_SIZE;
+        if (bytes.length != count * RECORD_SIZE) {
+            /* Cut off a record torn by an interrupted append, so that the
+             * next one starts on a record boundary */
+            truncate(count * RECORD_SIZE);
+        }
+        ObjectId[][] records = new ObjectId[count][3];
+        int[] gens = new int[count];
+        for (int i = 0; i < count; i += 1) {
+            for (int k = 0; k < 3; k += 1) {
+                ObjectId id = ObjectId.fromRaw(bytes,
+                        i * RECORD_SIZE + k * ID_SIZE);
+                records[i][k] = id.equals(NONE) ? null : id;
+            }
+            gens[i] = buf.getInt(i * RECORD_SIZE + 3 * ID_SIZE);
+        }
+        /* Parents are always recorded before their children.  If one is
+         * not, the file is damaged: start again from an empty file, and
+         * let commits be added from their objects as they are asked for */
+        for (int i = 0; i < count; i += 1) {
+            if (positions.containsKey(records[i][0])) {
+                continue;
+            }
+            if (!isKnown(records[i][1]) || !isKnown(records[i][2])) {
+                ids.clear();
+                positions.clear();
+                truncate(0);
+                return;
+            }
+            insert(records[i][0], records[i][1], records[i][2], gens[i]);
+        }
+    }
+
+    /** Return true iff ID is null or already in the graph. */
+    private boolean isKnown(ObjectId id) {
+        return id == null || positions.containsKey(id);
+    }
+
+    /** Cut the graph file down to LENGTH bytes. */
+    private void truncate(long length) {
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.setLength(length);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return true iff commit HASH is in the graph file. */
+    boolean contains(String hash) {
+        return positions.containsKey(ObjectId.fromHex(hash));
+    }
+
+    /** Record commit ID with parents FIRSTPARENT and SECONDPARENT (either
+     *  may be null), adding any missing ancestors first.  Returns the
+     *  position of ID. */
+    int add(ObjectId id, ObjectId firstParent, ObjectId secondParent) {
+        Integer pos = positions.get(id);
+        if (pos != null) {
+            return pos;
+        }
+        ensure(firstParent);
+        ensure(secondParent);
+        int gen = 1 + Math.max(generation(firstParent),
+                generation(secondParent));
+        int result = insert(id, firstParent, secondParent, gen);
+        append(id, firstParent, secondParent, gen);
+        return result;
+    }
+
+    /** Make sure commit HASH and all of its ancestors are in the graph,
+     *  reading commit objects only for commits that are missing. */
+    void ensure(String hash) {
+        ensure(ObjectId.fromHexOrNull(hash));
+    }
+
+    /** Make sure commit ID, if not null, and all of its ancestors are in
+     *  the graph. */
+    private void ensure(ObjectId id) {
+        if (id == null || positions.containsKey(id)) {
+            return;
+        }
+        Deque<ObjectId> stack = new ArrayDeque<>();
+        stack.push(id);
+        while (!stack.isEmpty()) {
+            ObjectId current = stack.peek();
+            if (positions.containsKey(current)) {
+                stack.pop();
+                continue;
+            }
+            Commit commit = Commit.fromFile(join(commitsDir,
+                    current.toHex()));
+            ObjectId first = commit.getFirstParent();
+            ObjectId second = commit.getSecondParent();
+            boolean ready = true;
+            for (ObjectId parent : new ObjectId[] {first, second}) {
+                if (parent != null && !positions.containsKey(parent)) {
+                    stack.push(parent);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                stack.pop();
+                add(current, first, second);
+            }
+        }
+    }
+
+    /** Return the first parent of HASH, or null. */
+    String getFirstParent(String hash) {
+        return idAt(firstParents[position(hash)]);
+    }
+
+    /** Return the second parent of HASH, or null. */
+    String getSecondParent(String hash) {
+        return idAt(secondParents[position(hash)]);
+    }
+
+    /** Return the parents of ID, each null if absent. */
+    ObjectId[] getParents(ObjectId id) {
+        int pos = position(id);
+        return new ObjectId[] {objectIdAt(firstParents[pos]),
+                               objectIdAt(secondParents[pos])};
+    }
+
+    /** Return the generation number of ID, or 0 if ID is null. */
+    private int generation(ObjectId id) {
+        return id == null ? 0 : generations[position(id)];
+    }
+
+    /** Return the root commit reached from HASH by first parents. */
+    String root(String hash) {
+        int pos = position(hash);
+        while (firstParents[pos] >= 0) {
+            pos = firstParents[pos];
+        }
+        return idAt(pos);
+    }
+
+    /** Return true iff ANCESTOR is DESCENDANT or one of its ancestors
+     *  along any parent.  Commits whose generation is not larger than
+     *  that of ANCESTOR cannot lead to it and are not explored. */
+    boolean isAncestor(String ancestor, String descendant) {
+        int target = position(ancestor);
+        int start = position(descendant);
+        int targetGen = generations[target];
+        boolean[] seen = new boolean[ids.size()];
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(start);
+        while (!stack.isEmpty()) {
+            int pos = stack.pop();
+            if (pos == target) {
+                return true;
+            }
+            if (seen[pos] || generations[pos] <= targetGen) {
+                continue;
+            }
+            seen[pos] = true;
+            for (int parent : new int[] {firstParents[pos],
+                                         secondParents[pos]}) {
+                if (parent >= 0 && !seen[parent]) {
+                    stack.push(parent);
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Return the commits reachable from WANT that are not reachable from
+     *  any commit in HAVES, all commits of this repository.  Like
+     *  mergeBase, the walk goes in decreasing generation order, so a
+     *  commit's flags are final when it is examined; it stops as soon as
+     *  every commit left to examine is reachable from HAVES. */
+    HashSet<String> missing(String want, Collection<String> haves) {
+        final int wanted = 1;
+        final int had = 2;
+        int wantPos = position(want);
+        List<Integer> havePositions = new ArrayList<>();
+        for (String have : haves) {
+            havePositions.add(position(have));
+        }
+        int[] flags = new int[ids.size()];
+        PriorityQueue<Integer> queue = new PriorityQueue<>((a, b) ->
+                generations[a] != generations[b]
+                ? Integer.compare(generations[b], generations[a])
+                : Integer.compare(a, b));
+        flags[wantPos] = wanted;
+        queue.add(wantPos);
+        int wantedLeft = 1;
+        for (int pos : havePositions) {
+            if (flags[pos] == 0) {
+                queue.add(pos);
+            } else if (flags[pos] == wanted) {
+                wantedLeft -= 1;
+            }
+            flags[pos] |= had;
+        }
+
+        HashSet<String> result = new HashSet<>();
+        while (wantedLeft > 0) {
+            int pos = queue.poll();
+            if (flags[pos] == wanted) {
+                wantedLeft -= 1;
+                result.add(idAt(pos));
+            }
+            for (int parent : new int[] {firstParents[pos],
+                                         secondParents[pos]}) {
+                if (parent < 0 || (flags[parent] | flags[pos])
+                        == flags[parent]) {
+                    continue;
+                }
+                if (flags[parent] == 0) {
+                    queue.add(parent);
+                    if (flags[pos] == wanted) {
+                        wantedLeft += 1;
+                    }
+                } else if (flags[parent] == wanted) {
+                    wantedLeft -= 1;
+                }
+                flags[parent] |= flags[pos];
+            }
+        }
+        return result;
+    }
+
+    /** Return the latest common ancestor of HASH1 and HASH2, or null if
+     *  they have none.  Commits are visited in decreasing generation
+     *  order, so each commit is reached from all of its descendants
+     *  before it is examined and the first one reachable from both sides
+     *  is a best common ancestor. */
+    String mergeBase(String hash1, String hash2) {
+        final int fromFirst = 1;
+        final int fromSecond = 2;
+        int pos1 = position(hash1);
+        int pos2 = position(hash2);
+        int[] flags = new int[ids.size()];
+        PriorityQueue<Integer> queue = new PriorityQueue<>((a, b) ->
+                generations[a] != generations[b]
+                ? Integer.compare(generations[b], generations[a])
+                : Integer.compare(a, b));
+        flags[pos1] |= fromFirst;
+        flags[pos2] |= fromSecond;
+        queue.add(pos1);
+        if (pos2 != pos1) {
+            queue.add(pos2);
+        }
+        while (!queue.isEmpty()) {
+            int pos = queue.poll();
+            if (flags[pos] == (fromFirst | fromSecond)) {
+                return idAt(pos);
+            }
+            for (int parent : new int[] {firstParents[pos],
+                                         secondParents[pos]}) {
+                if (parent < 0) {
+                    continue;
+                }
+                if (flags[parent] == 0) {
+                    queue.add(parent);
+                }
+                flags[parent] |= flags[pos];
+            }
+        }
+        return null;
+    }
+
+    /** Return the position of HASH, adding it to the graph if needed. */
+    private int position(String hash) {
+        return position(ObjectId.fromHex(hash));
+    }
+
+    /** Return the position of ID, adding it to the graph if needed. */
+    private int position(ObjectId id) {
+        Integer pos = positions.get(id);
+        if (pos == null) {
+            ensure(id);
+            pos = positions.get(id);
+        }
+        return pos;
+    }
+
+    /** Return the id at position POS, or null if POS is -1. */
+    private String idAt(int pos) {
+        return pos < 0 ? null : ids.get(pos).toHex();
+    }
+
+    /** Add ID to the in-memory graph and return its position. */
+    private int insert(ObjectId id, ObjectId firstParent,
+                       ObjectId secondParent, int gen) {
+        int pos = ids.size();
+        if (pos == generations.length) {
+            firstParents = Arrays.copyOf(firstParents, 2 * pos);
+            secondParents = Arrays.copyOf(secondParents, 2 * pos);
+            generations = Arrays.copyOf(generations, 2 * pos);
+        }
+        ids.add(id);
+        positions.put(id, pos);
+        firstParents[pos] = firstParent == null ? -1 : positions.get(firstParent);
+        secondParents[pos] = secondParent == null
+                ? -1 : positions.get(secondParent);
+        generations[pos] = gen;
+        return pos;
+    }
+
+    /** Rewrite the graph file so that it only describes the commits in
+     *  LIVE, which must include the parents of each of them. */
+    void retain(Set<String> live) {
+        HashSet<ObjectId> liveIds = new HashSet<>();
+        for (String hash : live) {
+            liveIds.add(ObjectId.fromHex(hash));
+        }
+        ByteBuffer buf = ByteBuffer.allocate(ids.size() * RECORD_SIZE);
+        for (int pos = 0; pos < ids.size(); pos += 1) {
+            if (liveIds.contains(ids.get(pos))) {
+                putRecord(buf, ids.get(pos), objectIdAt(firstParents[pos]),
+                        objectIdAt(secondParents[pos]), generations[pos]);
+            }
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        writeContents(temp, Arrays.copyOf(buf.array(), buf.position()));
+        try {
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the id at position POS, or null if POS is -1. */
+    private ObjectId objectIdAt(int pos) {
+        return pos < 0 ? null : ids.get(pos);
+    }
+
+    /** Put the record of ID into BUF. */
+    private static void putRecord(ByteBuffer buf, ObjectId id,
+                                  ObjectId firstParent, ObjectId secondParent,
+                                  int gen) {
+        buf.put(id.toRaw());
+        buf.put(firstParent == null ? NO_PARENT : firstParent.toRaw());
+        buf.put(secondParent == null ? NO_PARENT : secondParent.toRaw());
+        buf.putInt(gen);
+    }
+
+    /** Append the record of ID to the graph file. */
+    private void append(ObjectId id, ObjectId firstParent,
+                        ObjectId secondParent, int gen) {
+        ByteBuffer buf = ByteBuffer.allocate(RECORD_SIZE);
+        putRecord(buf, id, firstParent, secondParent, gen);
+        try {
+            Files.write(file.toPath(), buf.array(), StandardOpenOption.CREATE,
+                    StandardOpenOption.APPEND);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Cache.put(file, this);
+    }
+}
@@ -0,0 +1,527 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+import static gitlet.Utils.*;
+
+/** An append-only log of commit metadata (id, parents, time and message),
+ *  so that log, global-log and find do not need to deserialize commit
+ *  objects.
+ *
+ *  Each record in the commit-log file is its length followed by the raw
+ *  commit id, the raw ids of both parents (all zero when absent), the
+ *  time as epoch seconds and nanoseconds, and the UTF-8 message.  Beside
+ *  it, commit-log.paths holds, for each record in the same order, the
+ *  commit id and a BloomFilter of the paths the commit changed relative
+ *  to its first parent, so that log -- PATH can skip most commits without
+ *  reading them.  Two SortedTables index the records: commit-log.ids maps
+ *  each commit id to the offsets of its records in both files, and
+ *  commit-log.find maps the hash of each message to the offset of its
+ *  record, so that find and log look records up by binary search.
+ *
+ *  A batch of records is written to the log, the changed-path filters,
+ *  the message index and finally the id index, whose journal entries
+ *  mark the records that were completely written.  Whatever a write
+ *  interrupted before that point is cut off the next time the log is
+ *  opened.  A repository without these files builds them from its commit
+ *  objects the first time they are used.
+ *  @author skye-ye
+ */
+class CommitLog {
+
+    /** Name of the log file inside a .gitlet directory. */
+    static final String FILE_NAME = "commit-log";
+    /** Name of the message hash index inside a .gitlet directory. */
+    static final String FIND_INDEX_NAME = "commit-log.find";
+    /** Name of the changed-path filters inside a .gitlet directory. */
+    static final String PATHS_INDEX_NAME = "commit-log.paths";
+    /** Name of the commit id index inside a .gitlet directory. */
+    static final String ID_INDEX_NAME = "commit-log.ids";
+
+    /** Size of a raw commit id. */
+    private static final int ID_SIZE = 20;
+    /** Size of one message hash index entry: the hash and the offset of
+     *  the record. */
+    private static final int FIND_ENTRY_SIZE = 16;
+    /** Size of one commit id index entry: the raw id and the offsets of
+     *  the records in the log and in the changed-path filters. */
+    private static final int ID_ENTRY_SIZE = ID_SIZE + 16;
+    /** Raw id used for a missing parent. */
+    private static final byte[] NO_PARENT = new byte[ID_SIZE];
+
+    /** The metadata of one commit. */
+    static class Entry {
+        /** The commit id. */
+        final String id;
+        /** The first parent, or null. */
+        final String firstParent;
+        /** The second parent, or null. */
+        final String secondParent;
+        /** The time of the commit. */
+        final Instant time;
+        /** The message of the commit. */
+        final String message;
+        /** The Bloom filter of the paths the commit changed relative to
+         *  its first parent, or null if it was not read. */
+        final byte[] changedPaths;
+
+        Entry(String id, String firstParent, String secondParent,
+              Instant time, String message, byte[] changedPaths) {
+            this.id = id;
+            this.firstParent = firstParent;
+            this.secondParent = secondParent;
+            this.time = time;
+            this.message = message;
+            this.changedPaths = changedPaths;
+        }
+
+        /** Return true iff the commit may have changed the path whose
+         *  BloomFilter hash is PATHHASH. */
+        boolean mayChange(long pathHash) {
+            return changedPaths == null
+                    || BloomFilter.mightContain(changedPaths, pathHash);
+        }
+    }
+
+    /** The log file. */
+    private final File file;
+    /** The changed-path filters file. */
+    private final File pathsIndex;
+    /** The message hash index. */
+    private final SortedTable findIndex;
+    /** The commit id index. */
+    private final SortedTable idIndex;
+    /** The commits directory, used to build a missing log. */
+    private final File commitsDir;
+    /** True once the log has been checked by open. */
+    private boolean opened;
+
+    /** The commit log of the repository in GITLETDIR. */
+    CommitLog(File gitletDir) {
+        this.file = join(gitletDir, FILE_NAME);
+        this.pathsIndex = join(gitletDir, PATHS_INDEX_NAME);
+        this.findIndex = new SortedTable(join(gitletDir, FIND_INDEX_NAME),
+                8, FIND_ENTRY_SIZE);
+        this.idIndex = new SortedTable(join(gitletDir, ID_INDEX_NAME),
+                ID_SIZE, ID_ENTRY_SIZE);
+        this.commitsDir = join(gitletDir, "objects", "commits");
+    }
+
+    /** Record that commit ID is COMMIT, unless it is recorded already. */
+    void append(String id, Commit commit) {
+        open();
+        if (idIndex.lookup(PackFile.toRaw(id)).isEmpty()) {
+            write(Collections.singletonList(toEntry(id, commit)));
+        }
+    }
+
+    /** Return the entry of commit ID, with its changed-path filter.  A
+     *  commit that exists but is missing from the log is recorded first.
+     *  Throws GitletException if there is no commit ID. */
+    Entry get(String id) {
+        open();
+        List<ByteBuffer> hits = idIndex.lookup(PackFile.toRaw(id));
+        if (hits.isEmpty()) {
+            File commitFile = join(commitsDir, id);
+            if (!ObjectStore.exists(commitFile)) {
+                throw error("Missing commit %s.", id);
+            }
+            append(id, Commit.fromFile(commitFile));
+            hits = idIndex.lookup(PackFile.toRaw(id));
+        }
+        ByteBuffer hit = hits.get(0);
+        try (RandomAccessFile in = new RandomAccessFile(file, "r");
+             RandomAccessFile paths = new RandomAccessFile(pathsIndex, "r")) {
+            byte[] record = readRecord(in, hit.getLong(ID_SIZE));
+            paths.seek(hit.getLong(ID_SIZE + 8) + ID_SIZE);
+            byte[] filter = new byte[paths.readUnsignedShort()];
+            paths.readFully(filter);
+            return decode(record, filter);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the commit ids starting with PREFIX, stopping at two: an
+     *  empty list if there is no such commit, the unique one, or two of
+     *  them if PREFIX is ambiguous.  A full id of a commit that exists but
+     *  is missing from the log is recorded first. */
+    List<String> resolve(String prefix) {
+        open();
+        prefix = prefix.toLowerCase();
+        if (prefix.length() > 2 * ID_SIZE || !prefix.matches("[0-9a-f]*")) {
+            return Collections.emptyList();
+        }
+        StringBuilder padded = new StringBuilder(prefix);
+        while (padded.length() < 2 * ID_SIZE) {
+            padded.append('0');
+        }
+        List<String> matches = new ArrayList<>();
+        for (ByteBuffer hit : idIndex.lookupPrefix(
+                PackFile.toRaw(padded.toString()), 4 * prefix.length(), 3)) {
+            byte[] raw = new byte[ID_SIZE];
+            hit.get(raw);
+            String id = PackFile.toHex(raw);
+            if (!matches.contains(id) && matches.size() < 2) {
+                matches.add(id);
+            }
+        }
+        if (matches.isEmpty() && prefix.length() == 2 * ID_SIZE
+                && ObjectStore.exists(join(commitsDir, prefix))) {
+            get(prefix);
+            matches.add(prefix);
+        }
+        return matches;
+    }
+
+    /** Return true iff the log holds the commit whose full id is ID. */
+    boolean contains(String id) {
+        open();
+        return !idIndex.lookup(PackFile.toRaw(id)).isEmpty();
+    }
+
+    /** Call ACTION on every entry, in the order the commits were
+     *  recorded, reading the log sequentially. */
+    void forEach(Consumer<Entry> action) {
+        open();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(file.toPath()), BUFFER_SIZE));
+             DataInputStream paths = new DataInputStream(
+                     new BufferedInputStream(Files.newInputStream(
+                             pathsIndex.toPath()), BUFFER_SIZE))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException excp) {
+                    break;
+                }
+                byte[] record = new byte[length];
+                in.readFully(record);
+                paths.skipBytes(ID_SIZE);
+                byte[] filter = new byte[paths.readUnsignedShort()];
+                paths.readFully(filter);
+                action.accept(decode(record, filter));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the ids of all commits whose message is MESSAGE, in
+     *  lexicographic order.  Only the records whose message hash matches
+     *  are read from the log. */
+    List<String> find(String message) {
+        open();
+        byte[] key = ByteBuffer.allocate(8).putLong(messageHash(message))
+                .array();
+        TreeSet<String> result = new TreeSet<>();
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            for (ByteBuffer hit : findIndex.lookup(key)) {
+                Entry entry = decode(readRecord(in, hit.getLong(8)), null);
+                if (entry.message.equals(message)) {
+                    result.add(entry.id);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Drop the entries of the commits that are not in LIVE, keeping the
+     *  others in the order they were recorded. */
+    void retain(Set<String> live) {
+        List<Entry> entries = new ArrayList<>();
+        forEach(entry -> {
+            if (live.contains(entry.id)) {
+                entries.add(entry);
+            }
+        });
+        rewrite(entries);
+    }
+
+    /** Rebuild the log from the commits directory. */
+    private void rebuild() {
+        List<Entry> entries = new ArrayList<>();
+        List<String> ids = ObjectStore.list(commitsDir);
+        if (ids != null) {
+            for (String id : ids) {
+                entries.add(toEntry(id,
+                        Commit.fromFile(join(commitsDir, id))));
+            }
+        }
+        rewrite(entries);
+    }
+
+    /** Replace the log and its indexes with ENTRIES.  The id index goes
+     *  first and comes back last, so that an interrupted rewrite is
+     *  redone by the next open. */
+    private void rewrite(List<Entry> entries) {
+        idIndex.delete();
+        findIndex.delete();
+        file.delete();
+        pathsIndex.delete();
+        Batch batch = encode(entries, 0, 0);
+        try {
+            Files.write(file.toPath(), batch.log);
+            Files.write(pathsIndex.toPath(), batch.paths);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        findIndex.write(batch.find, new long[SortedTable.HEADER_LONGS]);
+        idIndex.write(batch.ids, new long[] {batch.log.length,
+                                             batch.paths.length});
+        opened = true;
+    }
+
+    /** Make sure that the log and its indexes exist and agree.  They are
+     *  built if any of them is missing, and the records and message index
+     *  entries that a write interrupted before it reached the id index
+     *  are cut off. */
+    private void open() {
+        if (opened) {
+            return;
+        }
+        if (!file.exists() || !pathsIndex.exists() || !findIndex.exists()
+                || !idIndex.exists()) {
+            rebuild();
+            return;
+        }
+        List<byte[]> journal = idIndex.readJournal();
+        idIndex.truncateJournal(journal.size());
+        long logEnd = idIndex.header(0);
+        long pathsEnd = idIndex.header(1);
+        if (!journal.isEmpty()) {
+            ByteBuffer last = ByteBuffer.wrap(journal.get(journal.size() - 1));
+            try (RandomAccessFile in = new RandomAccessFile(file, "r");
+                 RandomAccessFile paths = new RandomAccessFile(pathsIndex,
+                         "r")) {
+                long offset = last.getLong(ID_SIZE);
+                in.seek(offset);
+                logEnd = offset + 4 + in.readInt();
+                offset = last.getLong(ID_SIZE + 8);
+                paths.seek(offset + ID_SIZE);
+                pathsEnd = offset + ID_SIZE + 2 + paths.readUnsignedShort();
+            } catch (IOException excp) {
+                rebuild();
+                return;
+            }
+        }
+        if (file.length() < logEnd || pathsIndex.length() < pathsEnd) {
+            rebuild();
+            return;
+        }
+        truncate(file, logEnd);
+        truncate(pathsIndex, pathsEnd);
+        List<byte[]> found = findIndex.readJournal();
+        int kept = 0;
+        while (kept < found.size()
+                && ByteBuffer.wrap(found.get(kept)).getLong(8) < logEnd) {
+            kept += 1;
+        }
+        findIndex.truncateJournal(kept);
+        opened = true;
+    }
+
+    /** Cut FILE down to LENGTH bytes, if it is longer. */
+    private static void truncate(File file, long length) {
+        if (file.length() > length) {
+            try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+                out.setLength(length);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Return the entry of commit ID, which is COMMIT. */
+    private Entry toEntry(String id, Commit commit) {
+        return new Entry(id, hex(commit.getFirstParent()),
+                hex(commit.getSecondParent()), commit.getInstant(),
+                commit.getMessage(), BloomFilter.of(changedPaths(commit)));
+    }
+
+    /** Return the paths of the files that COMMIT adds, removes or changes
+     *  relative to its first parent. */
+    private Set<String> changedPaths(Commit commit) {
+        Commit parent = commit.getFirstParent() == null ? null
+                : Commit.fromFile(join(commitsDir,
+                        commit.getFirstParent().toHex()));
+        if (commit.hasTree() && (parent == null || parent.hasTree())) {
+            return Tree.changedPaths(join(commitsDir.getParentFile(), "trees"),
+                    parent == null ? null : parent.getTree(),
+                    commit.getTree());
+        }
+        Map<String, ObjectId> oldBlobs = parent == null
+                ? new HashMap<>() : parent.getBlobs();
+        Map<String, ObjectId> newBlobs = commit.getBlobs();
+        Set<String> result = new HashSet<>(newBlobs.keySet());
+        result.addAll(oldBlobs.keySet());
+        result.removeIf(path -> Objects.equals(oldBlobs.get(path),
+                newBlobs.get(path)));
+        return result;
+    }
+
+    /** The encoded form of some entries. */
+    private static class Batch {
+        /** Their records in the log. */
+        final byte[] log;
+        /** Their changed-path filters. */
+        final byte[] paths;
+        /** Their message hash index entries. */
+        final List<byte[]> find;
+        /** Their commit id index entries. */
+        final List<byte[]> ids;
+
+        Batch(byte[] log, byte[] paths, List<byte[]> find,
+              List<byte[]> ids) {
+            this.log = log;
+            this.paths = paths;
+            this.find = find;
+            this.ids = ids;
+        }
+    }
+
+    /** Return the encoded form of ENTRIES, to be written at offset
+     *  LOGOFFSET of the log and PATHSOFFSET of the changed-path
+     *  filters. */
+    private static Batch encode(List<Entry> entries, long logOffset,
+                                long pathsOffset) {
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        ByteArrayOutputStream paths = new ByteArrayOutputStream();
+        List<byte[]> find = new ArrayList<>();
+        List<byte[]> ids = new ArrayList<>();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(log));
+             DataOutputStream pathsOut = new DataOutputStream(
+                     new BufferedOutputStream(paths))) {
+            for (Entry entry : entries) {
+                byte[] record = encode(entry);
+                byte[] raw = PackFile.toRaw(entry.id);
+                find.add(ByteBuffer.allocate(FIND_ENTRY_SIZE)
+                        .putLong(messageHash(entry.message))
+                        .putLong(logOffset).array());
+                ids.add(ByteBuffer.allocate(ID_ENTRY_SIZE).put(raw)
+                        .putLong(logOffset).putLong(pathsOffset).array());
+                out.writeInt(record.length);
+                out.write(record);
+                logOffset += 4 + record.length;
+                pathsOut.write(raw);
+                pathsOut.writeShort(entry.changedPaths.length);
+                pathsOut.write(entry.changedPaths);
+                pathsOffset += ID_SIZE + 2 + entry.changedPaths.length;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return new Batch(log.toByteArray(), paths.toByteArray(), find, ids);
+    }
+
+    /** Append ENTRIES to the log, the changed-path filters, the message
+     *  hash index and, last, the commit id index.  The indexes are only
+     *  compacted after that, so that their main files never refer to
+     *  records that may yet be cut off. */
+    private void write(List<Entry> entries) {
+        long logOffset = file.length();
+        long pathsOffset = pathsIndex.length();
+        Batch batch = encode(entries, logOffset, pathsOffset);
+        long[] ends = {logOffset + batch.log.length,
+                       pathsOffset + batch.paths.length};
+        try {
+            Files.write(file.toPath(), batch.log,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            Files.write(pathsIndex.toPath(), batch.paths,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        findIndex.append(batch.find);
+        idIndex.append(batch.ids);
+        findIndex.compact(new long[SortedTable.HEADER_LONGS]);
+        idIndex.compact(ends);
+    }
+
+    /** Return the record at OFFSET of the log open as IN. */
+    private static byte[] readRecord(RandomAccessFile in, long offset)
+            throws IOException {
+        in.seek(offset);
+        byte[] record = new byte[in.readInt()];
+        in.readFully(record);
+        return record;
+    }
+
+    /** Return the record of ENTRY. */
+    private static byte[] encode(Entry entry) {
+        byte[] message = entry.message.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buf = ByteBuffer.allocate(3 * ID_SIZE + 12
+                + message.length);
+        buf.put(PackFile.toRaw(entry.id));
+        buf.put(toRaw(entry.firstParent));
+        buf.put(toRaw(entry.secondParent));
+        buf.putLong(entry.time.getEpochSecond());
+        buf.putInt(entry.time.getNano());
+        buf.put(message);
+        return buf.array();
+    }
+
+    /** Return the entry whose record is RECORD and whose changed-path
+     *  filter is CHANGEDPATHS. */
+    private static Entry decode(byte[] record, byte[] changedPaths) {
+        ByteBuffer buf = ByteBuffer.wrap(record);
+        String id = fromRaw(buf);
+        String firstParent = fromRaw(buf);
+        String secondParent = fromRaw(buf);
+        Instant time = Instant.ofEpochSecond(buf.getLong(), buf.getInt());
+        String message = new String(record, buf.position(), buf.remaining(),
+                StandardCharsets.UTF_8);
+        return new Entry(id, firstParent, secondParent, time, message,
+                changedPaths);
+    }
+
+    /** Return the raw form of the possibly null id HASH. */
+    private static byte[] toRaw(String hash) {
+        return hash == null ? NO_PARENT : PackFile.toRaw(hash);
+    }
+
+    /** Return the hexadecimal form of the possibly null id ID. */
+    private static String hex(ObjectId id) {
+        return id == null ? null : id.toHex();
+    }
+
+    /** Read a raw id from BUF, returning null for an absent parent. */
+    private static String fromRaw(ByteBuffer buf) {
+        byte[] raw = new byte[ID_SIZE];
+        buf.get(raw);
+        return Arrays.equals(raw, NO_PARENT) ? null : PackFile.toHex(raw);
+    }
+
+    /** Return the 64-bit hash of MESSAGE used by the find index. */
+    private static long messageHash(String message) {
+        return Long.parseUnsignedLong(sha1(message).substring(0, 16), 16);
+    }
+}
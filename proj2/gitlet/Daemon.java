@@ -0,0 +1,220 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import static gitlet.Utils.*;
+
+/** A long-lived process that serves the gitlet commands of one
+ *  repository, so that scripted work does not pay for starting a JVM and
+ *  decoding the same files again for every command.
+ *
+ *  "gitlet daemon" listens on the Unix-domain socket daemon.sock in the
+ *  .gitlet directory, with the Cache enabled.  While it runs, every other
+ *  gitlet command in that directory connects to the socket and becomes a
+ *  thin client: it sends the command's arguments and copies what comes
+ *  back to its own standard output and error.  If there is no socket, or
+ *  nothing listens on it any more, the command simply runs in its own
+ *  process.  "gitlet daemon stop" ends the daemon.
+ *
+ *  A request is the number of arguments, each argument as modified UTF-8
+ *  and whether GITLET_METRICS is set for the client.  The response is a
+ *  series of frames, each a channel byte (1 for standard output, 2 for
+ *  standard error) followed by a length and that many bytes, ended by a
+ *  frame of channel 0.  Commands are served one at a time.
+ *  @author skye-ye
+ */
+class Daemon {
+
+    /** Name of the socket inside a .gitlet directory. */
+    static final String SOCKET_NAME = "daemon.sock";
+
+    /** Channel of the frame that ends a response. */
+    private static final byte EXIT = 0;
+    /** Channel of standard output. */
+    private static final byte OUT = 1;
+    /** Channel of standard error. */
+    private static final byte ERR = 2;
+    /** Largest number of bytes sent in one frame. */
+    private static final int FRAME_SIZE = 1 << 16;
+
+    /** Serve the commands of the repository in GITLETDIR until a client
+     *  asks the daemon to stop. */
+    static void serve(File gitletDir) throws IOException {
+        File socket = join(gitletDir, SOCKET_NAME);
+        if (isRunning(socket)) {
+            throw error("A gitlet daemon is already running.");
+        }
+        socket.delete();
+        Cache.enable();
+        try (ServerSocketChannel server =
+                     ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socket.toPath()));
+            Runtime.getRuntime().addShutdownHook(new Thread(socket::delete));
+            boolean running = true;
+            while (running) {
+                try (SocketChannel client = server.accept()) {
+                    running = handle(client);
+                } catch (IOException excp) {
+                    /* The client went away; serve the next one */
+                }
+            }
+        } finally {
+            socket.delete();
+        }
+    }
+
+    /** Run ARGS in the daemon of the repository in GITLETDIR, copying its
+     *  output to this process's.  Returns false, having done nothing, if
+     *  no daemon is running. */
+    static boolean forward(File gitletDir, String[] args) throws IOException {
+        File socket = join(gitletDir, SOCKET_NAME);
+        if (!socket.exists()) {
+            return false;
+        }
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(
+                    UnixDomainSocketAddress.of(socket.toPath()));
+        } catch (IOException excp) {
+            return false;
+        }
+        try (channel) {
+            /* Send the request */
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.writeBoolean(System.getenv(Metrics.ENV_VARIABLE) != null);
+            out.flush();
+
+            /* Copy the response */
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(channel)));
+            byte[] buffer = new byte[FRAME_SIZE];
+            while (true) {
+                byte stream = in.readByte();
+                int length = in.readInt();
+                if (stream == EXIT) {
+                    break;
+                }
+                in.readFully(buffer, 0, length);
+                (stream == OUT ? System.out : System.err)
+                        .write(buffer, 0, length);
+            }
+            System.out.flush();
+            System.err.flush();
+        }
+        return true;
+    }
+
+    /** Serve the request of CLIENT.  Returns false iff the daemon should
+     *  stop. */
+    private static boolean handle(SocketChannel client) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(client)));
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = in.readUTF();
+        }
+        boolean metrics = in.readBoolean();
+        boolean stop = args.length == 2 && args[0].equals("daemon")
+                && args[1].equals("stop");
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Channels.newOutputStream(client), FRAME_SIZE));
+        PrintStream stdout = new PrintStream(new BufferedOutputStream(
+                new FrameStream(out, OUT), FRAME_SIZE));
+        PrintStream stderr = new PrintStream(new BufferedOutputStream(
+                new FrameStream(out, ERR), FRAME_SIZE));
+        PrintStream oldOut = System.out;
+        PrintStream oldErr = System.err;
+        System.setOut(stdout);
+        System.setErr(stderr);
+        try {
+            if (!stop) {
+                ObjectStore.refresh();
+                Main.run(args);
+                if (metrics) {
+                    Metrics.print();
+                }
+            }
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+            Cache.clear();
+        } catch (IOException | RuntimeException excp) {
+            excp.printStackTrace();
+            Cache.clear();
+        } finally {
+            System.setOut(oldOut);
+            System.setErr(oldErr);
+            Metrics.reset();
+        }
+        stdout.flush();
+        stderr.flush();
+        out.writeByte(EXIT);
+        out.writeInt(0);
+        out.flush();
+        return !stop;
+    }
+
+    /** Return true iff a daemon is listening on SOCKET. */
+    private static boolean isRunning(File socket) {
+        if (!socket.exists()) {
+            return false;
+        }
+        try (SocketChannel channel = SocketChannel.open(
+                UnixDomainSocketAddress.of(socket.toPath()))) {
+            return channel.isConnected();
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Writes everything written to it as frames of one channel. */
+    private static class FrameStream extends OutputStream {
+        /** The stream of the response. */
+        private final DataOutputStream out;
+        /** The channel of the frames. */
+        private final byte stream;
+
+        FrameStream(DataOutputStream out, byte stream) {
+            this.out = out;
+            this.stream = stream;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            synchronized (out) {
+                out.writeByte(stream);
+                out.writeInt(len);
+                out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (out) {
+                out.flush();
+            }
+        }
+    }
+}
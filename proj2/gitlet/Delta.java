@@ -0,0 +1,157 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/** Delta encoding of one object against another.
+ *
+ *  A delta is the varint size of the target followed by instructions:
+ *  a COPY byte with a varint offset and length copies bytes of the base,
+ *  and an INSERT byte with a varint length and that many literal bytes
+ *  adds new data.  Matches are found by hashing every BLOCK-byte window
+ *  of the target and looking it up among the aligned blocks of the base,
+ *  then extending each hit forwards and backwards.
+ *  @author skye-ye
+ */
+class Delta {
+
+    /** Instruction copying a range of the base. */
+    private static final int COPY = 0;
+    /** Instruction inserting literal bytes. */
+    private static final int INSERT = 1;
+    /** Size of the blocks used to find matches. */
+    private static final int BLOCK = 16;
+    /** Multiplier of the rolling hash. */
+    private static final int PRIME = 31;
+
+    /** Return a delta that turns BASE into TARGET. */
+    static byte[] encode(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, target.length);
+        if (base.length < BLOCK || target.length < BLOCK) {
+            insert(out, target, 0, target.length);
+            return out.toByteArray();
+        }
+
+        HashMap<Integer, Integer> blocks = new HashMap<>();
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            blocks.putIfAbsent(hash(base, i), i);
+        }
+        int power = 1;
+        for (int i = 1; i < BLOCK; i += 1) {
+            power *= PRIME;
+        }
+
+        int pending = 0;
+        int pos = 0;
+        int h = hash(target, 0);
+        while (pos + BLOCK <= target.length) {
+            Integer match = blocks.get(h);
+            if (match != null && Arrays.equals(base, match, match + BLOCK,
+                    target, pos, pos + BLOCK)) {
+                int start = match;
+                int back = 0;
+                while (pos - back > pending && start - back > 0
+                        && base[start - back - 1] == target[pos - back - 1]) {
+                    back += 1;
+                }
+                int length = BLOCK;
+                while (pos + length < target.length
+                        && start + length < base.length
+                        && base[start + length] == target[pos + length]) {
+                    length += 1;
+                }
+                insert(out, target, pending, pos - back);
+                out.write(COPY);
+                writeVarint(out, start - back);
+                writeVarint(out, length + back);
+                pos += length;
+                pending = pos;
+                if (pos + BLOCK <= target.length) {
+                    h = hash(target, pos);
+                }
+                continue;
+            }
+            if (pos + BLOCK < target.length) {
+                h = (h - target[pos] * power) * PRIME + target[pos + BLOCK];
+            }
+            pos += 1;
+        }
+        insert(out, target, pending, target.length);
+        return out.toByteArray();
+    }
+
+    /** Return the object obtained by applying DELTA to BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        byte[] result = new byte[(int) readVarint(delta, pos)];
+        int size = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]++];
+            if (op == COPY) {
+                int offset = (int) readVarint(delta, pos);
+                int length = (int) readVarint(delta, pos);
+                System.arraycopy(base, offset, result, size, length);
+                size += length;
+            } else {
+                int length = (int) readVarint(delta, pos);
+                System.arraycopy(delta, pos[0], result, size, length);
+                pos[0] += length;
+                size += length;
+            }
+        }
+        if (size != result.length) {
+            throw new IllegalArgumentException("corrupt delta");
+        }
+        return result;
+    }
+
+    /** Return the size of the object that DELTA, or a prefix of it long
+     *  enough to hold its first varint, produces. */
+    static long size(byte[] delta) {
+        return readVarint(delta, new int[] {0});
+    }
+
+    /** Write an INSERT of DATA[FROM..TO) to OUT, if it is not empty. */
+    private static void insert(ByteArrayOutputStream out, byte[] data,
+                               int from, int to) {
+        if (to > from) {
+            out.write(INSERT);
+            writeVarint(out, to - from);
+            out.write(data, from, to - from);
+        }
+    }
+
+    /** Return the hash of the BLOCK bytes of DATA starting at START. */
+    private static int hash(byte[] data, int start) {
+        int h = 0;
+        for (int i = start; i < start + BLOCK; i += 1) {
+            h = h * PRIME + data[i];
+        }
+        return h;
+    }
+
+    /** Write the non-negative VALUE to OUT as a varint. */
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /** Read a varint from DATA at POS[0], advancing POS[0] past it. */
+    private static long readVarint(byte[] data, int[] pos) {
+        long result = 0;
+        int shift = 0;
+        while (true) {
+            int b = data[pos[0]++] & 0xff;
+            result |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+            shift += 7;
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package gitlet;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Line diffs between two versions of a file.
+ *
+ *  Files are split into lines, each hashed once, and compared with the
+ *  linear-space variant of Myers' O(ND) algorithm: after trimming common
+ *  prefixes and suffixes, the "middle snake" of an optimal edit script
+ *  is found by searching forwards and backwards at once, and the two
+ *  halves around it are compared recursively.  Apart from the contents
+ *  themselves, memory is linear in the number of lines.  Files larger
+ *  than MAX_SIZE are never loaded to be compared line by line: a diff
+ *  only reports that they differ, and a merge makes them a whole-file
+ *  conflict.
+ *  @author skye-ye
+ */
+class Diff {
+
+    /** Number of unchanged lines shown around each change by unified. */
+    static final int CONTEXT = 3;
+
+    /** Largest file, in bytes, that is compared line by line. */
+    static final long MAX_SIZE = 64L << 20;
+
+    /** Offset basis of the 64-bit FNV-1a hash of lines. */
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    /** Prime of the 64-bit FNV-1a hash of lines. */
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /** The lines of one version of a file. */
+    static class Lines {
+        /** The contents of the file. */
+        private final byte[] data;
+        /** The start of each line in DATA, followed by DATA.length. */
+        private final int[] starts;
+        /** The hash of each line. */
+        private final long[] hashes;
+
+        /** The lines of DATA.  Each line keeps its terminating newline;
+         *  the last one has none if DATA does not end with a newline. */
+        Lines(byte[] data) {
+            this.data = data;
+            int count = 0;
+            for (int i = 0; i < data.length; i += 1) {
+                if (data[i] == '\n' || i == data.length - 1) {
+                    count += 1;
+                }
+            }
+            starts = new int[count + 1];
+            hashes = new long[count];
+            int line = 0;
+            long hash = FNV_OFFSET;
+            for (int i = 0; i < data.length; i += 1) {
+                hash = (hash ^ (data[i] & 0xff)) * FNV_PRIME;
+                if (data[i] == '\n' || i == data.length - 1) {
+                    hashes[line] = hash;
+                    line += 1;
+                    starts[line] = i + 1;
+                    hash = FNV_OFFSET;
+                }
+            }
+        }
+
+        /** Return the number of lines. */
+        int size() {
+            return hashes.length;
+        }
+
+        /** Return true iff line I of this equals line J of OTHER. */
+        boolean lineEquals(int i, Lines other, int j) {
+            return hashes[i] == other.hashes[j]
+                    && Arrays.equals(data, starts[i], starts[i + 1],
+                    other.data, other.starts[j], other.starts[j + 1]);
+        }
+
+        /** Return true iff lines [FROM, TO) of this equal lines
+         *  [OTHERFROM, OTHERTO) of OTHER. */
+        boolean rangeEquals(int from, int to, Lines other, int otherFrom,
+                            int otherTo) {
+            if (to - from != otherTo - otherFrom) {
+                return false;
+            }
+            for (int i = 0; i < to - from; i += 1) {
+                if (!lineEquals(from + i, other, otherFrom + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** Return true iff the last line has no terminating newline. */
+        boolean missingFinalNewline() {
+            return data.length > 0 && data[data.length - 1] != '\n';
+        }
+
+        /** Write lines [FROM, TO) to OUT as they are. */
+        void write(PrintStream out, int from, int to) {
+            out.write(data, starts[from], starts[to] - starts[from]);
+        }
+    }
+
+    /** A change: lines [aStart, aEnd) of the old version are replaced by
+     *  lines [bStart, bEnd) of the new one. */
+    static class Edit {
+        /** The range of replaced old lines. */
+        final int aStart, aEnd;
+        /** The range of new lines replacing them. */
+        final int bStart, bEnd;
+
+        Edit(int aStart, int aEnd, int bStart, int bEnd) {
+            this.aStart = aStart;
+            this.aEnd = aEnd;
+            this.bStart = bStart;
+            this.bEnd = bEnd;
+        }
+    }
+
+    /** The old version. */
+    private final Lines a;
+    /** The new version. */
+    private final Lines b;
+    /** Whether each old line is removed. */
+    private final boolean[] aChanged;
+    /** Whether each new line is added. */
+    private final boolean[] bChanged;
+
+    private Diff(Lines a, Lines b) {
+        this.a = a;
+        this.b = b;
+        aChanged = new boolean[a.size()];
+        bChanged = new boolean[b.size()];
+    }
+
+    /** Return the changes that turn A into B, in order.  Consecutive
+     *  changed lines form a single edit. */
+    static List<Edit> diff(Lines a, Lines b) {
+        Diff diff = new Diff(a, b);
+        diff.compare(0, a.size(), 0, b.size());
+        List<Edit> result = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < a.size() || j < b.size()) {
+            if (i < a.size() && j < b.size()
+                    && !diff.aChanged[i] && !diff.bChanged[j]) {
+                i += 1;
+                j += 1;
+                continue;
+            }
+            int aStart = i;
+            int bStart = j;
+            while (i < a.size() && diff.aChanged[i]) {
+                i += 1;
+            }
+            while (j < b.size() && diff.bChanged[j]) {
+                j += 1;
+            }
+            result.add(new Edit(aStart, i, bStart, j));
+        }
+        return result;
+    }
+
+    /** Mark the changed lines between lines [ALO, AHI) of the old version
+     *  and [BLO, BHI) of the new one. */
+    private void compare(int aLo, int aHi, int bLo, int bHi) {
+        while (aLo < aHi && bLo < bHi && a.lineEquals(aLo, b, bLo)) {
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && a.lineEquals(aHi - 1, b, bHi - 1)) {
+            aHi -= 1;
+            bHi -= 1;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            Arrays.fill(aChanged, aLo, aHi, true);
+            Arrays.fill(bChanged, bLo, bHi, true);
+            return;
+        }
+        int[] split = middleSnake(aLo, aHi, bLo, bHi);
+        if (split == null || (split[0] == aLo && split[1] == bLo)
+                || (split[0] == aHi && split[1] == bHi)) {
+            Arrays.fill(aChanged, aLo, aHi, true);
+            Arrays.fill(bChanged, bLo, bHi, true);
+            return;
+        }
+        compare(aLo, split[0], bLo, split[1]);
+        compare(split[0], aHi, split[1], bHi);
+    }
+
+    /** Return a point {x, y} on an optimal edit path from (ALO, BLO) to
+     *  (AHI, BHI) where the forward and backward searches meet, or null
+     *  if the ranges have no line in common. */
+    private int[] middleSnake(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int maxD = (n + m + 1) / 2;
+        int offset = maxD;
+        int length = 2 * maxD + 2;
+        int[] forward = new int[length];
+        int[] backward = new int[length];
+        Arrays.fill(forward, -1);
+        Arrays.fill(backward, -1);
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int kStart1 = 0;
+        int kEnd1 = 0;
+        int kStart2 = 0;
+        int kEnd2 = 0;
+        for (int d = 0; d < maxD; d += 1) {
+            for (int k = -d + kStart1; k <= d - kEnd1; k += 2) {
+                int pos = offset + k;
+                int x = k == -d || (k != d && forward[pos - 1] < forward[pos + 1])
+                        ? forward[pos + 1] : forward[pos - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a.lineEquals(aLo + x, b, bLo + y)) {
+                    x += 1;
+                    y += 1;
+                }
+                forward[pos] = x;
+                if (x > n) {
+                    kEnd1 += 2;
+                } else if (y > m) {
+                    kStart1 += 2;
+                } else if (odd) {
+                    int other = offset + delta - k;
+                    if (other >= 0 && other < length && backward[other] != -1
+                            && x >= n - backward[other]) {
+                        return new int[] {aLo + x, bLo + y};
+                    }
+                }
+            }
+            for (int k = -d + kStart2; k <= d - kEnd2; k += 2) {
+                int pos = offset + k;
+                int x = k == -d
+                        || (k != d && backward[pos - 1] < backward[pos + 1])
+                        ? backward[pos + 1] : backward[pos - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m
+                        && a.lineEquals(aHi - x - 1, b, bHi - y - 1)) {
+                    x += 1;
+                    y += 1;
+                }
+                backward[pos] = x;
+                if (x > n) {
+                    kEnd2 += 2;
+                } else if (y > m) {
+                    kStart2 += 2;
+                } else if (!odd) {
+                    int other = offset + delta - k;
+                    if (other >= 0 && other < length && forward[other] != -1) {
+                        int x1 = forward[other];
+                        int y1 = offset + x1 - other;
+                        if (x1 >= n - x) {
+                            return new int[] {aLo + x1, bLo + y1};
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Print to OUT that the file PATH differs between two versions too
+     *  large to compare, where OLDEXISTS and NOWEXISTS tell whether each
+     *  version exists. */
+    static void tooLarge(String path, boolean oldExists, boolean nowExists,
+                         PrintStream out) {
+        out.println("diff --gitlet a/" + path + " b/" + path);
+        out.println(oldExists ? "--- a/" + path : "--- /dev/null");
+        out.println(nowExists ? "+++ b/" + path : "+++ /dev/null");
+        out.println("Files too large to compare differ");
+        out.flush();
+    }
+
+    /** Print the differences between OLD and NEW, either of which may be
+     *  null for a missing file, to OUT as a unified diff of the file
+     *  PATH.  Prints nothing if they are equal. */
+    static void unified(String path, Lines old, Lines now, PrintStream out) {
+        Lines a = old == null ? new Lines(new byte[0]) : old;
+        Lines b = now == null ? new Lines(new byte[0]) : now;
+        List<Edit> edits = diff(a, b);
+        if (edits.isEmpty() && (old == null) == (now == null)) {
+            return;
+        }
+        out.println("diff --gitlet a/" + path + " b/" + path);
+        out.println(old == null ? "--- /dev/null" : "--- a/" + path);
+        out.println(now == null ? "+++ /dev/null" : "+++ b/" + path);
+
+        for (int first = 0; first < edits.size(); ) {
+            /* Group the edits whose contexts overlap into one hunk */
+            int last = first;
+            while (last + 1 < edits.size() && edits.get(last + 1).aStart
+                    - edits.get(last).aEnd <= 2 * CONTEXT) {
+                last += 1;
+            }
+            Edit start = edits.get(first);
+            Edit end = edits.get(last);
+            int aFrom = Math.max(0, start.aStart - CONTEXT);
+            int aTo = Math.min(a.size(), end.aEnd + CONTEXT);
+            int bFrom = start.bStart - (start.aStart - aFrom);
+            int bTo = end.bEnd + (aTo - end.aEnd);
+            out.println("@@ -" + range(aFrom, aTo) + " +" + range(bFrom, bTo)
+                    + " @@");
+
+            int i = aFrom;
+            for (int e = first; e <= last; e += 1) {
+                Edit edit = edits.get(e);
+                printLines(out, ' ', a, i, edit.aStart);
+                printLines(out, '-', a, edit.aStart, edit.aEnd);
+                printLines(out, '+', b, edit.bStart, edit.bEnd);
+                i = edit.aEnd;
+            }
+            printLines(out, ' ', a, i, aTo);
+            first = last + 1;
+        }
+        out.flush();
+    }
+
+    /** Return the hunk header range of lines [FROM, TO). */
+    private static String range(int from, int to) {
+        int count = to - from;
+        if (count == 1) {
+            return Integer.toString(from + 1);
+        }
+        return (count == 0 ? from : from + 1) + "," + count;
+    }
+
+    /** Print lines [FROM, TO) of LINES to OUT, each after PREFIX. */
+    private static void printLines(PrintStream out, char prefix, Lines lines,
+                                   int from, int to) {
+        for (int i = from; i < to; i += 1) {
+            out.print(prefix);
+            lines.write(out, i, i + 1);
+            if (i == lines.size() - 1 && lines.missingFinalNewline()) {
+                out.println();
+                out.println("\\ No newline at end of file");
+            }
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Utils.*;
+
+/** A cache of the stat data of working files together with the hash of
+ *  their contents when that stat data was recorded.  As long as a file's
+ *  size, modification time and inode are unchanged, its hash is taken
+ *  from here instead of reading the file again.
+ *
+ *  An entry whose modification time is not older than the index file
+ *  itself is "racy": the file may have been changed again within the
+ *  same timestamp granule after it was recorded, so it is rehashed.
+ *  @author skye-ye
+ */
+public class FileIndex implements Serializable {
+    /** Fixed so that indexes written by earlier versions stay readable. */
+    private static final long serialVersionUID = 6869326663514632313L;
+
+    /** The stat data and hash of one working file. */
+    private static class Entry implements Serializable {
+        /** Fixed so that a recompiled class still reads the indexes it
+         *  wrote. */
+        private static final long serialVersionUID = 7114761872659637749L;
+
+        /** The size of the file in bytes. */
+        private final long size;
+        /** The modification time of the file in nanoseconds. */
+        private final long mtime;
+        /** The inode of the file, or 0 if it is not available. */
+        private final long inode;
+        /** The SHA-1 hash of the contents of the file. */
+        private final ObjectId hash;
+
+        Entry(long[] stat, ObjectId hash) {
+            this.size = stat[0];
+            this.mtime = stat[1];
+            this.inode = stat[2];
+            this.hash = hash;
+        }
+
+        /** Return true iff STAT is the stat data of this entry. */
+        boolean matches(long[] stat) {
+            return size == stat[0] && mtime == stat[1] && inode == stat[2];
+        }
+    }
+
+    /** Largest number of files hashed by one task of a parallel scan. */
+    private static final int SCAN_CHUNK = 16;
+
+    /** The entries of this index, keyed by file name. */
+    private final HashMap<String, Entry> entries = new HashMap<>();
+    /** The modification time of the index file when it was read. */
+    private transient long indexTime;
+    /** True iff this index has changed since it was read. */
+    private transient boolean dirty;
+
+    /** Return the index stored in FILENAME, or an empty index if there is
+     *  none yet or it cannot be read, in which case every file is hashed
+     *  again. */
+    public static FileIndex fromFile(File fileName) {
+        if (!fileName.exists()) {
+            return new FileIndex();
+        }
+        return Cache.file(fileName, FileIndex.class, file -> {
+            FileIndex index;
+            try {
+                index = readObject(file, FileIndex.class);
+            } catch (IllegalArgumentException excp) {
+                return new FileIndex();
+            }
+            long[] stat = stat(file);
+            index.indexTime = stat == null ? 0 : stat[1];
+            return index;
+        });
+    }
+
+    /** Write this index to FILENAME if it has changed. */
+    public void save(File fileName) {
+        if (dirty) {
+            dirty = false;
+            Cache.write(fileName, this, () -> {
+                writeObject(fileName, this);
+                long[] stat = stat(fileName);
+                indexTime = stat == null ? 0 : stat[1];
+            });
+        }
+    }
+
+    /** Return the SHA-1 hash of the working file FILE named FILENAME,
+     *  reading its contents only if its stat data has changed since it
+     *  was last recorded. */
+    public ObjectId hash(String fileName, File file) {
+        long[] stat = stat(file);
+        ObjectId hash = cachedHash(fileName, stat);
+        if (hash == null) {
+            hash = ObjectId.fromHex(sha1File(file));
+            record(fileName, stat, hash);
+        }
+        return hash;
+    }
+
+    /** Return the hashes of the files named FILENAMES in the directory DIR,
+     *  keyed by name, leaving out those that do not exist.  Files whose
+     *  stat data has changed are hashed in parallel by a fork-join scan,
+     *  and their new hashes are then recorded in this index. */
+    public HashMap<String, ObjectId> hashAll(Collection<String> fileNames,
+                                             File dir) {
+        String[] names = fileNames.toArray(new String[0]);
+        ObjectId[] hashes = new ObjectId[names.length];
+        long[][] stats = new long[names.length][];
+        ForkJoinPool.commonPool().invoke(
+                new HashTask(dir, names, hashes, stats, 0, names.length));
+
+        HashMap<String, ObjectId> result = new HashMap<>();
+        for (int i = 0; i < names.length; i += 1) {
+            if (hashes[i] == null) {
+                continue;
+            }
+            result.put(names[i], hashes[i]);
+            if (stats[i] != null) {
+                record(names[i], stats[i], hashes[i]);
+            }
+        }
+        return result;
+    }
+
+    /** Hashes a range of files for hashAll, splitting it in halves until
+     *  each piece is small enough to hash on one thread.  Only reads the
+     *  index, so that pieces can run concurrently.  Like every fork-join
+     *  task it is nominally Serializable, but it is never serialized. */
+    @SuppressWarnings("serial")
+    private class HashTask extends RecursiveAction {
+        /** The directory of the files. */
+        private final File dir;
+        /** The names of all files being hashed. */
+        private final String[] names;
+        /** The hashes found, null for missing files. */
+        private final ObjectId[] hashes;
+        /** The stat data taken before hashing each file whose hash was
+         *  computed rather than cached, and null for the others. */
+        private final long[][] stats;
+        /** The range of NAMES handled by this task. */
+        private final int from, to;
+
+        HashTask(File dir, String[] names, ObjectId[] hashes,
+                 long[][] stats, int from, int to) {
+            this.dir = dir;
+            this.names = names;
+            this.hashes = hashes;
+            this.stats = stats;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > SCAN_CHUNK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new HashTask(dir, names, hashes, stats, from, mid),
+                        new HashTask(dir, names, hashes, stats, mid, to));
+                return;
+            }
+            for (int i = from; i < to; i += 1) {
+                File file = Utils.join(dir, names[i]);
+                if (!file.isFile()) {
+                    continue;
+                }
+                long[] stat = stat(file);
+                hashes[i] = cachedHash(names[i], stat);
+                if (hashes[i] == null) {
+                    hashes[i] = ObjectId.fromHex(sha1File(file));
+                    stats[i] = stat;
+                }
+            }
+        }
+    }
+
+    /** Return the recorded hash of the working file named FILENAME if its
+     *  current stat data STAT, null if it cannot be read, is unchanged,
+     *  and null otherwise. */
+    ObjectId cachedHash(String fileName, long[] stat) {
+        Entry entry = entries.get(fileName);
+        if (entry == null || entry.mtime >= indexTime) {
+            return null;
+        }
+        if (stat == null || !entry.matches(stat)) {
+            return null;
+        }
+        return entry.hash;
+    }
+
+    /** Record that the working file FILE named FILENAME currently has
+     *  contents with hash HASH. */
+    public void record(String fileName, File file, ObjectId hash) {
+        record(fileName, stat(file), hash);
+    }
+
+    /** Record that the working file named FILENAME had contents with hash
+     *  HASH when its stat data was STAT, forgetting it if STAT is null.
+     *  A file that is read to be hashed is statted first, so that a
+     *  change made while it is read is noticed next time. */
+    void record(String fileName, long[] stat, ObjectId hash) {
+        if (stat == null) {
+            forget(fileName);
+        } else {
+            entries.put(fileName, new Entry(stat, hash));
+            dirty = true;
+        }
+    }
+
+    /** Drop the entry for FILENAME, if any. */
+    public void forget(String fileName) {
+        if (entries.remove(fileName) != null) {
+            dirty = true;
+        }
+    }
+
+    /** Return the size, modification time in nanoseconds and inode of
+     *  FILE, or null if it cannot be read. */
+    static long[] stat(File file) {
+        try {
+            Map<String, Object> attrs = Files.readAttributes(file.toPath(),
+                    "unix:size,lastModifiedTime,ino");
+            return new long[] {
+                (Long) attrs.get("size"),
+                ((FileTime) attrs.get("lastModifiedTime"))
+                        .to(TimeUnit.NANOSECONDS),
+                (Long) attrs.get("ino")
+            };
+        } catch (UnsupportedOperationException | IllegalArgumentException excp) {
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(
+                        file.toPath(), BasicFileAttributes.class);
+                return new long[] {
+                    attrs.size(),
+                    attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+                    0
+                };
+            } catch (IOException e) {
+                return null;
+            }
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+}
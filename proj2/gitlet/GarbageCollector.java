@@ -0,0 +1,144 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RecursiveAction;
+
+import static gitlet.Utils.*;
+
+/** Reachability-based garbage collection of a repository's objects.
+ *
+ *  The mark phase walks the commit graph from the roots (every branch,
+ *  remote-tracking branches included, and HEAD) to find the live commits,
+ *  then marks the trees and blobs under them, and the chunks of the
+ *  chunked blobs among those.  Tree walks run as fork-join tasks, one per
+ *  tree, sharing concurrent sets of marked ids, so a subtree shared by
+ *  many commits is read only once.  The sweep phase deletes every object
+ *  that was not marked, and the commit indexes are rewritten to forget
+ *  the commits that were deleted.
+ *  @author skye-ye
+ */
+class GarbageCollector {
+
+    /** The .gitlet directory of the repository. */
+    private final File gitletDir;
+    /** The objects directory of the repository. */
+    private final File objectsDir;
+    /** The live commits. */
+    private final Set<ObjectId> commits = ConcurrentHashMap.newKeySet();
+    /** The live trees. */
+    private final Set<ObjectId> trees = ConcurrentHashMap.newKeySet();
+    /** The live blobs. */
+    private final Set<ObjectId> blobs = ConcurrentHashMap.newKeySet();
+    /** The live chunks of chunked blobs. */
+    private final Set<ObjectId> chunks = ConcurrentHashMap.newKeySet();
+
+    /** A collector for the repository in GITLETDIR. */
+    GarbageCollector(File gitletDir) {
+        this.gitletDir = gitletDir;
+        this.objectsDir = join(gitletDir, "objects");
+    }
+
+    /** Delete every object not reachable from the commits ROOTS or among
+     *  the blobs KEEP, e.g. those in the staging area.  Returns the number
+     *  of objects removed and the number of bytes reclaimed. */
+    long[] collect(Collection<String> roots, Collection<ObjectId> keep) {
+        long start = System.currentTimeMillis();
+        blobs.addAll(keep);
+
+        /* Mark the live commits */
+        CommitGraph graph = CommitGraph.fromDir(gitletDir);
+        Deque<ObjectId> pending = new ArrayDeque<>();
+        for (String root : roots) {
+            pending.push(ObjectId.fromHex(root));
+        }
+        while (!pending.isEmpty()) {
+            ObjectId id = pending.pop();
+            if (!commits.add(id)) {
+                continue;
+            }
+            for (ObjectId parent : graph.getParents(id)) {
+                if (parent != null) {
+                    pending.push(parent);
+                }
+            }
+        }
+
+        /* Mark their trees and blobs in parallel */
+        commits.parallelStream().forEach(id -> {
+            Commit commit = Commit.fromFile(join(objectsDir, "commits",
+                    id.toHex()));
+            if (commit.hasTree()) {
+                new MarkTree(commit.getTree()).invoke();
+            } else {
+                blobs.addAll(commit.getBlobs().values());
+            }
+        });
+
+        /* Mark the chunks of the live chunked blobs */
+        blobs.parallelStream().forEach(id -> {
+            File blob = join(objectsDir, "blobs", id.toHex());
+            if (ObjectStore.exists(blob)) {
+                Chunker.Manifest manifest = Chunker.manifestOf(blob);
+                if (manifest != null) {
+                    for (String chunk : manifest.ids) {
+                        chunks.add(ObjectId.fromHex(chunk));
+                    }
+                }
+            }
+        });
+
+        /* Sweep everything else */
+        List<Set<ObjectId>> live = Arrays.asList(blobs, commits, trees,
+                chunks);
+        long[] result = ObjectStore.prune(objectsDir, live, start);
+
+        /* Forget the deleted commits, keeping those that were spared
+         * because they are newer than the collection */
+        ObjectStore.refresh();
+        HashSet<String> remaining = new HashSet<>(
+                ObjectStore.list(join(objectsDir, "commits")));
+        graph.retain(remaining);
+        new CommitLog(gitletDir).retain(remaining);
+        return result;
+    }
+
+    /** Marks a tree and, in parallel, the trees and blobs under it.  Like
+     *  every fork-join task it is nominally Serializable, but it is never
+     *  serialized. */
+    @SuppressWarnings("serial")
+    private class MarkTree extends RecursiveAction {
+        /** The id of the tree. */
+        private final ObjectId id;
+
+        MarkTree(ObjectId id) {
+            this.id = id;
+        }
+
+        @Override
+        protected void compute() {
+            if (!trees.add(id)) {
+                return;
+            }
+            List<MarkTree> subtrees = new ArrayList<>();
+            for (Tree.Entry entry
+                    : Tree.read(Utils.join(objectsDir, "trees"), id)
+                    .getEntries().values()) {
+                if (entry.isTree) {
+                    subtrees.add(new MarkTree(entry.id));
+                } else {
+                    blobs.add(entry.id);
+                }
+            }
+            invokeAll(subtrees);
+        }
+    }
+}
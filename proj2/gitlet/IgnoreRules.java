@@ -0,0 +1,195 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static gitlet.Utils.*;
+
+/** The patterns of the .gitletignore file at the top of a working tree,
+ *  naming the untracked files and directories that the working-tree walk
+ *  leaves out.
+ *
+ *  The syntax follows .gitignore: one pattern per line, blank lines and
+ *  lines starting with '#' skipped.  '*' and '?' match within one name,
+ *  "**" matches any number of directories, a trailing '/' matches
+ *  directories only and a leading '!' re-includes what an earlier pattern
+ *  ignored.  A pattern with no '/' but a trailing one matches a name at
+ *  any depth; any other pattern is relative to the top of the tree.  The
+ *  last pattern that matches a path decides.
+ *
+ *  The patterns are compiled once into a trie of names: literal names are
+ *  looked up in a hash map, names with wildcards are tried as regular
+ *  expressions, and "**" is a node that may consume any number of names.
+ *  Matching a path only follows the branches of the trie that its names
+ *  lead to, so the walk can test a directory and, if it is ignored, skip
+ *  it without listing it.
+ *  @author skye-ye
+ */
+class IgnoreRules {
+
+    /** Name of the pattern file at the top of a working tree. */
+    static final String FILE_NAME = ".gitletignore";
+
+    /** One node of the trie, reached by the names on the way to it. */
+    private static class Node {
+        /** The children reached by a literal name. */
+        final HashMap<String, Node> literals = new HashMap<>();
+        /** The wildcard names of the other children, compiled. */
+        final List<Pattern> globs = new ArrayList<>();
+        /** The children reached by the names in GLOBS, in order. */
+        final List<Node> globChildren = new ArrayList<>();
+        /** The child reached by "**", or null. */
+        Node any;
+        /** The number of the last pattern that ends here, or -1. */
+        int rule = -1;
+        /** The number of the last directory-only pattern that ends here,
+         *  or -1. */
+        int directoryRule = -1;
+    }
+
+    /** The root of the trie. */
+    private final Node root = new Node();
+    /** Whether each pattern, by number, re-includes what it matches. */
+    private final List<Boolean> negated = new ArrayList<>();
+
+    /** The rules of the patterns in LINES. */
+    IgnoreRules(List<String> lines) {
+        for (String line : lines) {
+            line = line.replaceAll("\\s+$", "");
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                add(line);
+            }
+        }
+    }
+
+    /** Return the rules of the working tree whose top is DIR, which are
+     *  empty if it has no .gitletignore file. */
+    static IgnoreRules fromDir(File dir) {
+        File file = join(dir, FILE_NAME);
+        if (!file.isFile()) {
+            return new IgnoreRules(Collections.emptyList());
+        }
+        return Cache.file(file, IgnoreRules.class, f -> new IgnoreRules(
+                Arrays.asList(readContentsAsString(f).split("\n"))));
+    }
+
+    /** Return true iff there are no patterns. */
+    boolean isEmpty() {
+        return negated.isEmpty();
+    }
+
+    /** Return true iff PATH, relative to the top of the tree, is ignored;
+     *  ISDIRECTORY tells whether it names a directory. */
+    boolean isIgnored(String path, boolean isDirectory) {
+        if (negated.isEmpty()) {
+            return false;
+        }
+        String[] names = path.split(String.valueOf(Tree.SEPARATOR));
+        int rule = match(root, names, 0, isDirectory);
+        return rule >= 0 && !negated.get(rule);
+    }
+
+    /** Add the pattern LINE to the trie. */
+    private void add(String line) {
+        boolean negate = line.startsWith("!");
+        String glob = negate ? line.substring(1) : line;
+        boolean directoryOnly = glob.endsWith("/");
+        glob = glob.replaceAll("/+$", "");
+        boolean anchored = glob.indexOf(Tree.SEPARATOR) >= 0;
+        glob = glob.replaceAll("^/+", "");
+        if (glob.isEmpty()) {
+            return;
+        }
+
+        Node node = anchored ? root : any(root);
+        for (String name : glob.split("/")) {
+            if (name.equals("**")) {
+                node = any(node);
+            } else if (!name.isEmpty()) {
+                node = child(node, name);
+            }
+        }
+        int number = negated.size();
+        negated.add(negate);
+        if (directoryOnly) {
+            node.directoryRule = number;
+        } else {
+            node.rule = number;
+        }
+    }
+
+    /** Return the "**" child of NODE, adding it if needed. */
+    private static Node any(Node node) {
+        if (node.any == null) {
+            node.any = new Node();
+        }
+        return node.any;
+    }
+
+    /** Return the child of NODE for the name pattern NAME, adding it if
+     *  needed. */
+    private static Node child(Node node, String name) {
+        if (name.indexOf('*') < 0 && name.indexOf('?') < 0) {
+            return node.literals.computeIfAbsent(name, k -> new Node());
+        }
+        String regex = toRegex(name);
+        for (int i = 0; i < node.globs.size(); i += 1) {
+            if (node.globs.get(i).pattern().equals(regex)) {
+                return node.globChildren.get(i);
+            }
+        }
+        Node result = new Node();
+        node.globs.add(Pattern.compile(regex));
+        node.globChildren.add(result);
+        return result;
+    }
+
+    /** Return the number of the last pattern below NODE that matches
+     *  NAMES from position I on, or -1 if none does. */
+    private static int match(Node node, String[] names, int i,
+                             boolean isDirectory) {
+        int result = -1;
+        if (i == names.length) {
+            result = isDirectory
+                    ? Math.max(node.rule, node.directoryRule) : node.rule;
+        } else {
+            Node next = node.literals.get(names[i]);
+            if (next != null) {
+                result = match(next, names, i + 1, isDirectory);
+            }
+            for (int k = 0; k < node.globs.size(); k += 1) {
+                if (node.globs.get(k).matcher(names[i]).matches()) {
+                    result = Math.max(result, match(node.globChildren.get(k),
+                            names, i + 1, isDirectory));
+                }
+            }
+        }
+        if (node.any != null) {
+            for (int j = i; j <= names.length; j += 1) {
+                result = Math.max(result,
+                        match(node.any, names, j, isDirectory));
+            }
+        }
+        return result;
+    }
+
+    /** Return the regular expression of the name pattern NAME. */
+    private static String toRegex(String name) {
+        StringBuilder result = new StringBuilder();
+        for (char c : name.toCharArray()) {
+            if (c == '*') {
+                result.append(".*");
+            } else if (c == '?') {
+                result.append('.');
+            } else {
+                result.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return result.toString();
+    }
+}
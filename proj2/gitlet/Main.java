@@ -1,6 +1,8 @@
 package gitlet;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 
 import static gitlet.Utils.*;
 
@@ -9,127 +11,197 @@ import static gitlet.Utils.*;
  */
 public class Main {
 
-    /** Usage: java gitlet.Main ARGS, where ARGS contains
+    /** The option that traces the command. */
+    static final String TRACE_OPTION = "--trace";
+
+    /** Usage: java gitlet.Main [--trace[=FILE]] ARGS, where ARGS contains
      *  <COMMAND> <OPERAND1> <OPERAND2> ... 
+     *  With --trace, or with GITLET_TRACE set, the command is traced (see
+     *  Metrics) and runs in this process even if a daemon is running.
      */
     public static void main(String[] args) {
+        /* Turn tracing on if asked to */
+        String trace = System.getenv(Metrics.TRACE_VARIABLE);
+        if (args.length > 0 && (args[0].equals(TRACE_OPTION)
+                || args[0].startsWith(TRACE_OPTION + "="))) {
+            trace = args[0].equals(TRACE_OPTION)
+                    ? "1" : args[0].substring(TRACE_OPTION.length() + 1);
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+        if (trace != null) {
+            Metrics.trace(trace.isEmpty() || trace.equals("1")
+                    ? null : new File(trace));
+        }
+
         try {
-            if (args.length == 0) {
-                System.out.println("Please enter a command.");
-                System.exit(0);
-            }
-            Repository repo = new Repository();
-            String firstArg = args[0];
-            switch (firstArg) {
-                case "init":
-                    checkArgs(args, 1);
-                    repo.init();
-                    break;
-                case "add":
-                    checkArgs(args, 2);
-                    repo.add(args[1]);
-                    break;
-                case "commit":
-                    if (args.length < 2 || args[1].isEmpty()) {
-                        System.out.println("Please enter a commit message.");
-                        System.exit(0);
-                    }
-                    checkArgs(args, 2);
-                    repo.commit(args[1]);
-                    break;
-                case "rm":
-                    checkArgs(args, 2);
-                    repo.rm(args[1]);
-                    break;
-                case "log":
-                    checkArgs(args, 1);
-                    repo.log();
-                    break;
-                case "global-log":
-                    checkArgs(args, 1);
-                    repo.globalLog();
-                    break;
-                case "find":
-                    checkArgs(args, 2);
-                    repo.find(args[1]);
-                    break;
-                case "status":
-                    checkArgs(args, 1);
-                    repo.status();
-                    break;
-                case "checkout":
-                    if (args.length == 2) {
-                        repo.checkoutBranch(args[1]);
-                    } else if (args.length == 3) {
-                        if (!args[1].equals("--")) {
-                            System.out.println("Incorrect operands.");
-                            System.exit(0);
-                        }
-                        repo.checkoutFileFromCurrentCommit(args[2]);
-                    } else if (args.length == 4) {
-                        if (!args[2].equals("--")) {
-                            System.out.println("Incorrect operands.");
-                            System.exit(0);
-                        }
-                        repo.checkoutFileFromCommit(args[1], args[3]);
-                    } else {
-                        System.out.println("Incorrect operands.");
-                        System.exit(0);
-                    }
-                    break;
-                case "branch":
-                    checkArgs(args, 2);
-                    repo.branch(args[1]);
-                    break;
-                case "rm-branch":
-                    checkArgs(args, 2);
-                    repo.rmBranch(args[1]);
-                    break;
-                case "reset":
-                    checkArgs(args, 2);
-                    repo.reset(args[1]);
-                    break;
-                case "merge":
-                    checkArgs(args, 2);
-                    repo.merge(args[1]);
-                    break;
-                case "add-remote":
-                    checkArgs(args, 3);
-                    repo.addRemote(args[1], args[2]);
-                    break;
-                case "rm-remote":
-                    checkArgs(args, 2);
-                    repo.rmRemote(args[1]);
-                    break;
-                case "push":
-                    checkArgs(args, 3);
-                    repo.push(args[1], args[2]);
-                    break;
-                case "fetch":
-                    checkArgs(args, 3);
-                    repo.fetch(args[1], args[2]);
-                    break;
-                case "pull":
-                    checkArgs(args, 3);
-                    repo.pull(args[1], args[2]);
-                    break;
-                default:
-                    System.out.println("No command with that name exists.");
-                    System.exit(0);
+            /* Let a running daemon serve the command if there is one */
+            boolean local = Metrics.tracing || args.length == 1
+                    && (args[0].equals("daemon") || args[0].equals("batch"));
+            if (!local && Daemon.forward(Repository.GITLET_DIR, args)) {
+                return;
             }
+            run(args);
+            Metrics.report(args);
         } catch (GitletException e) {
             System.out.println(e.getMessage());
-            e.printStackTrace();
+            Metrics.report(args);
             System.exit(0);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /** Run the command in ARGS.  Errors are thrown as GitletExceptions
+     *  whose message is to be printed, instead of ending the process, so
+     *  that a daemon can go on serving commands after one fails. */
+    static void run(String[] args) throws IOException {
+        if (args.length == 0) {
+            throw error("Please enter a command.");
+        }
+        Repository repo = new Repository();
+        String firstArg = args[0];
+        switch (firstArg) {
+            case "init":
+                checkArgs(args, 1);
+                repo.init();
+                break;
+            case "add":
+                checkArgs(args, 2);
+                repo.add(args[1]);
+                break;
+            case "commit":
+                if (args.length < 2 || args[1].isEmpty()) {
+                    throw error("Please enter a commit message.");
+                }
+                checkArgs(args, 2);
+                repo.commit(args[1]);
+                break;
+            case "rm":
+                checkArgs(args, 2);
+                repo.rm(args[1]);
+                break;
+            case "log":
+                if (args.length == 3 && args[1].equals("--")) {
+                    repo.log(args[2]);
+                    break;
+                }
+                checkArgs(args, 1);
+                repo.log();
+                break;
+            case "global-log":
+                checkArgs(args, 1);
+                repo.globalLog();
+                break;
+            case "find":
+                checkArgs(args, 2);
+                repo.find(args[1]);
+                break;
+            case "status":
+                checkArgs(args, 1);
+                repo.status();
+                break;
+            case "checkout":
+                if (args.length == 2) {
+                    repo.checkoutBranch(args[1]);
+                } else if (args.length == 3) {
+                    if (!args[1].equals("--")) {
+                        throw error("Incorrect operands.");
+                    }
+                    repo.checkoutFileFromCurrentCommit(args[2]);
+                } else if (args.length == 4) {
+                    if (!args[2].equals("--")) {
+                        throw error("Incorrect operands.");
+                    }
+                    repo.checkoutFileFromCommit(args[1], args[3]);
+                } else {
+                    throw error("Incorrect operands.");
+                }
+                break;
+            case "branch":
+                checkArgs(args, 2);
+                repo.branch(args[1]);
+                break;
+            case "rm-branch":
+                checkArgs(args, 2);
+                repo.rmBranch(args[1]);
+                break;
+            case "reset":
+                checkArgs(args, 2);
+                repo.reset(args[1]);
+                break;
+            case "merge":
+                checkArgs(args, 2);
+                repo.merge(args[1]);
+                break;
+            case "add-remote":
+                checkArgs(args, 3);
+                repo.addRemote(args[1], args[2]);
+                break;
+            case "rm-remote":
+                checkArgs(args, 2);
+                repo.rmRemote(args[1]);
+                break;
+            case "push":
+                checkArgs(args, 3);
+                repo.push(args[1], args[2]);
+                break;
+            case "fetch":
+                checkArgs(args, 3);
+                repo.fetch(args[1], args[2]);
+                break;
+            case "pull":
+                checkArgs(args, 3);
+                repo.pull(args[1], args[2]);
+                break;
+            case "diff":
+                if (args.length > 3) {
+                    throw error("Incorrect operands.");
+                }
+                repo.diff(Arrays.copyOfRange(args, 1, args.length));
+                break;
+            case "gc":
+                checkArgs(args, 1);
+                repo.gc();
+                break;
+            case "stats":
+                checkArgs(args, 1);
+                repo.stats();
+                break;
+            case "sparse-checkout":
+                if (args.length > 2 && args[1].equals("set")) {
+                    repo.sparseCheckout(Arrays.asList(
+                            Arrays.copyOfRange(args, 2, args.length)));
+                } else if (args.length == 2 && args[1].equals("list")) {
+                    repo.sparseCheckoutList();
+                } else if (args.length == 2 && args[1].equals("disable")) {
+                    repo.sparseCheckout(null);
+                } else {
+                    throw error("Incorrect operands.");
+                }
+                break;
+            case "repack":
+                checkArgs(args, 1);
+                repo.repack();
+                break;
+            case "batch":
+                checkArgs(args, 1);
+                repo.batch();
+                break;
+            case "daemon":
+                if (args.length == 2 && args[1].equals("stop")) {
+                    throw error("No gitlet daemon is running.");
+                }
+                checkArgs(args, 1);
+                repo.daemon();
+                break;
+            default:
+                throw error("No command with that name exists.");
+        }
+    }
+
     private static void checkArgs(String[] args, int numArgs) {
         if (args.length != numArgs) {
-            System.out.println("Incorrect operands.");
-            System.exit(0);
+            throw error("Incorrect operands.");
         }
     }
 }
@@ -0,0 +1,161 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/** A line-level three-way merge of two versions of a file that both
+ *  descend from a common base.
+ *
+ *  Both versions are diffed against the base.  Changes that touch
+ *  different parts of the base are taken from whichever side made them,
+ *  and changes on both sides that overlap or touch are grouped into one
+ *  region.  A region where both sides made the same change is taken as
+ *  is; any other region becomes a conflict hunk holding the lines of the
+ *  current version and then those of the given one.
+ *  @author skye-ye
+ */
+class Merge {
+
+    /** Marker before the current version of a conflicting region. */
+    static final String OURS_MARKER = "<<<<<<< HEAD\n";
+    /** Marker between the two versions of a conflicting region. */
+    static final String SEPARATOR_MARKER = "=======\n";
+    /** Marker after the given version of a conflicting region. */
+    static final String THEIRS_MARKER = ">>>>>>>\n";
+
+    /** The merged contents. */
+    private final byte[] contents;
+    /** True iff some region conflicted. */
+    private final boolean conflict;
+
+    private Merge(byte[] contents, boolean conflict) {
+        this.contents = contents;
+        this.conflict = conflict;
+    }
+
+    /** Return the merged contents. */
+    byte[] getContents() {
+        return contents;
+    }
+
+    /** Return true iff the merge left conflict hunks in the contents. */
+    boolean hasConflict() {
+        return conflict;
+    }
+
+    /** Return the merge of OURS and THEIRS, which both descend from BASE. */
+    static Merge merge(byte[] base, byte[] ours, byte[] theirs) {
+        Diff.Lines baseLines = new Diff.Lines(base);
+        Diff.Lines ourLines = new Diff.Lines(ours);
+        Diff.Lines theirLines = new Diff.Lines(theirs);
+        List<Diff.Edit> ourEdits = Diff.diff(baseLines, ourLines);
+        List<Diff.Edit> theirEdits = Diff.diff(baseLines, theirLines);
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(buffer);
+        boolean conflict = false;
+        int basePos = 0;
+        int ourShift = 0;
+        int theirShift = 0;
+        int i = 0;
+        int j = 0;
+        while (i < ourEdits.size() || j < theirEdits.size()) {
+            /* Grow a region from the next edit while the other side's
+             * edits overlap or touch it */
+            int start;
+            if (j == theirEdits.size() || (i < ourEdits.size()
+                    && ourEdits.get(i).aStart <= theirEdits.get(j).aStart)) {
+                start = ourEdits.get(i).aStart;
+            } else {
+                start = theirEdits.get(j).aStart;
+            }
+            int end = start;
+            int ourStart = start + ourShift;
+            int theirStart = start + theirShift;
+            boolean oursChanged = false;
+            boolean theirsChanged = false;
+            boolean grew = true;
+            while (grew) {
+                grew = false;
+                while (i < ourEdits.size() && ourEdits.get(i).aStart <= end) {
+                    Diff.Edit edit = ourEdits.get(i);
+                    end = Math.max(end, edit.aEnd);
+                    ourShift += (edit.bEnd - edit.bStart)
+                            - (edit.aEnd - edit.aStart);
+                    oursChanged = true;
+                    grew = true;
+                    i += 1;
+                }
+                while (j < theirEdits.size()
+                        && theirEdits.get(j).aStart <= end) {
+                    Diff.Edit edit = theirEdits.get(j);
+                    end = Math.max(end, edit.aEnd);
+                    theirShift += (edit.bEnd - edit.bStart)
+                            - (edit.aEnd - edit.aStart);
+                    theirsChanged = true;
+                    grew = true;
+                    j += 1;
+                }
+            }
+            int ourEnd = end + ourShift;
+            int theirEnd = end + theirShift;
+
+            baseLines.write(out, basePos, start);
+            if (!theirsChanged) {
+                ourLines.write(out, ourStart, ourEnd);
+            } else if (!oursChanged || ourLines.rangeEquals(ourStart, ourEnd,
+                    theirLines, theirStart, theirEnd)) {
+                theirLines.write(out, theirStart, theirEnd);
+            } else {
+                out.print(OURS_MARKER);
+                ourLines.write(out, ourStart, ourEnd);
+                out.print(SEPARATOR_MARKER);
+                theirLines.write(out, theirStart, theirEnd);
+                out.print(THEIRS_MARKER);
+                conflict = true;
+            }
+            basePos = end;
+        }
+        baseLines.write(out, basePos, baseLines.size());
+        out.flush();
+        return new Merge(buffer.toByteArray(), conflict);
+    }
+
+    /** Write the whole-file conflict between the blobs named by OURS and
+     *  THEIRS, either of which may be null, to TARGET.  Each version is
+     *  copied one chunk at a time, so neither is loaded in full. */
+    static void conflict(File ours, File theirs, File target) {
+        try (FileChannel out = FileChannel.open(target.toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeMarker(OURS_MARKER, out);
+            if (ours != null) {
+                ObjectStore.appendBlob(ours, out);
+            }
+            writeMarker(SEPARATOR_MARKER, out);
+            if (theirs != null) {
+                ObjectStore.appendBlob(theirs, out);
+            }
+            writeMarker(THEIRS_MARKER, out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Write MARKER to OUT. */
+    private static void writeMarker(String marker, FileChannel out)
+            throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(
+                marker.getBytes(StandardCharsets.UTF_8));
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+    }
+}
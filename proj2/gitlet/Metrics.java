@@ -0,0 +1,155 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Named counters of the work done by one gitlet command, such as the
+ *  number of working files written by a checkout.  When the environment
+ *  variable GITLET_METRICS is set, the counters are printed to standard
+ *  error as "name: value" lines after the command finishes, so they never
+ *  mix with the normal output.
+ *
+ *  Tracing, turned on by the --trace option or the GITLET_TRACE variable,
+ *  adds the wall time of each phase (time.PHASE.ns: hashing, serializing,
+ *  deserializing, reading and writing files, and the whole command), the
+ *  number of calls of each file reading and writing utility (io.CALL)
+ *  and the bytes they read and wrote.  Phases may nest: a phase's time
+ *  includes that of the phases it calls.  The report goes to standard
+ *  error or, if a file is given, is appended to it as one JSON object
+ *  per line.  When tracing is off, each probe is a test of one field.
+ *  @author skye-ye
+ */
+class Metrics {
+
+    /** The environment variable that enables the report. */
+    static final String ENV_VARIABLE = "GITLET_METRICS";
+    /** The environment variable that turns tracing on.  Its value is the
+     *  JSON file to report to, or "1" for standard error. */
+    static final String TRACE_VARIABLE = "GITLET_TRACE";
+
+    /** True iff tracing is on. */
+    static boolean tracing;
+    /** The file the trace is appended to, or null for standard error. */
+    private static File traceFile;
+    /** The time tracing was turned on, in nanoseconds. */
+    private static long traceStart;
+
+    /** The counters, keyed by name. */
+    private static final TreeMap<String, Long> COUNTERS = new TreeMap<>();
+
+    /** Add N to the counter NAME. */
+    static synchronized void count(String name, long n) {
+        COUNTERS.merge(name, n, Long::sum);
+    }
+
+    /** Return the value of the counter NAME. */
+    static synchronized long get(String name) {
+        return COUNTERS.getOrDefault(name, 0L);
+    }
+
+    /** Turn tracing on, reporting to the JSON file FILE, or to standard
+     *  error if FILE is null. */
+    static void trace(File file) {
+        tracing = true;
+        traceFile = file;
+        traceStart = System.nanoTime();
+    }
+
+    /** Return the start of a phase, or 0 if tracing is off. */
+    static long start() {
+        return tracing ? System.nanoTime() : 0;
+    }
+
+    /** Add the time since START, as returned by start(), to PHASE. */
+    static void stop(String phase, long start) {
+        if (start != 0) {
+            count("time." + phase + ".ns", System.nanoTime() - start);
+        }
+    }
+
+    /** Count a call of the file utility CALL that read BYTES bytes. */
+    static void read(String call, long bytes) {
+        if (tracing) {
+            count("io." + call, 1);
+            count("io.bytes.read", bytes);
+        }
+    }
+
+    /** Count a call of the file utility CALL that wrote BYTES bytes. */
+    static void written(String call, long bytes) {
+        if (tracing) {
+            count("io." + call, 1);
+            count("io.bytes.written", bytes);
+        }
+    }
+
+    /** Report the counters of the command ARGS: to the trace file if
+     *  tracing to one, otherwise to standard error if tracing or if
+     *  GITLET_METRICS is set. */
+    static void report(String[] args) {
+        if (tracing) {
+            stop("total", traceStart);
+        }
+        if (traceFile != null) {
+            writeJson(args);
+        } else if (tracing || System.getenv(ENV_VARIABLE) != null) {
+            print();
+        }
+    }
+
+    /** Print the counters to standard error. */
+    static synchronized void print() {
+        for (Map.Entry<String, Long> counter : COUNTERS.entrySet()) {
+            System.err.println(counter.getKey() + ": " + counter.getValue());
+        }
+    }
+
+    /** Append the counters of the command ARGS to the trace file as one
+     *  JSON object. */
+    private static synchronized void writeJson(String[] args) {
+        StringBuilder json = new StringBuilder("{\"command\":[");
+        for (int i = 0; i < args.length; i += 1) {
+            json.append(i == 0 ? "" : ",").append(quote(args[i]));
+        }
+        json.append("],\"counters\":{");
+        String separator = "";
+        for (Map.Entry<String, Long> counter : COUNTERS.entrySet()) {
+            json.append(separator).append(quote(counter.getKey())).append(':')
+                    .append(counter.getValue());
+            separator = ",";
+        }
+        json.append("}}\n");
+        try {
+            Files.write(traceFile.toPath(),
+                    json.toString().getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException excp) {
+            System.err.println("Cannot write trace: " + excp.getMessage());
+        }
+    }
+
+    /** Return S as a JSON string. */
+    private static String quote(String s) {
+        StringBuilder result = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                result.append('\\').append(c);
+            } else if (c < ' ') {
+                result.append(String.format("\\u%04x", (int) c));
+            } else {
+                result.append(c);
+            }
+        }
+        return result.append('"').toString();
+    }
+
+    /** Set every counter back to zero, as before a new command. */
+    static synchronized void reset() {
+        COUNTERS.clear();
+    }
+}
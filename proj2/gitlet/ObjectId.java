@@ -0,0 +1,204 @@
+package gitlet;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/** The id of a gitlet object: the 20 bytes of a SHA-1 hash, held as two
+ *  longs and an int rather than as the 40-character hexadecimal string
+ *  that names the object's file, which takes about three times the
+ *  memory.  Ids compare in the order of their hexadecimal forms, and since
+ *  SHA-1 bits are uniformly distributed the hash code is simply the first
+ *  four bytes.
+ *
+ *  The hexadecimal codec works through lookup tables, a byte at a time;
+ *  it also serves raw ids that are never turned into ObjectIds, such as
+ *  fresh digests and the ids in pack and index files.
+ *  @author skye-ye
+ */
+final class ObjectId implements Comparable<ObjectId>, Serializable {
+
+    /** Fixed so that a recompiled class still reads the ids it wrote. */
+    private static final long serialVersionUID = 2871039461727551032L;
+
+    /** Size of a raw id. */
+    static final int SIZE = 20;
+    /** Length of the hexadecimal form of an id. */
+    static final int HEX_LENGTH = 2 * SIZE;
+
+    /** The hexadecimal digits, by value. */
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+    /** The value of each hexadecimal digit, by character, or -1. */
+    private static final byte[] VALUES = new byte[128];
+
+    static {
+        Arrays.fill(VALUES, (byte) -1);
+        for (int i = 0; i < DIGITS.length; i += 1) {
+            VALUES[DIGITS[i]] = (byte) i;
+            VALUES[Character.toUpperCase(DIGITS[i])] = (byte) i;
+        }
+    }
+
+    /** Bytes 0 to 7 of the id. */
+    private final long w1;
+    /** Bytes 8 to 15 of the id. */
+    private final long w2;
+    /** Bytes 16 to 19 of the id. */
+    private final int w3;
+
+    private ObjectId(long w1, long w2, int w3) {
+        this.w1 = w1;
+        this.w2 = w2;
+        this.w3 = w3;
+    }
+
+    /** Return the id whose hexadecimal form is HEX.  Throws
+     *  IllegalArgumentException if HEX is not a full id. */
+    static ObjectId fromHex(String hex) {
+        if (hex.length() != HEX_LENGTH) {
+            throw new IllegalArgumentException("not an object id: " + hex);
+        }
+        return new ObjectId(hexWord(hex, 0, 8), hexWord(hex, 8, 8),
+                (int) hexWord(hex, 16, 4));
+    }
+
+    /** Return the id whose hexadecimal form is HEX, or null if HEX is
+     *  null. */
+    static ObjectId fromHexOrNull(String hex) {
+        return hex == null ? null : fromHex(hex);
+    }
+
+    /** Return the id stored in the 20 bytes of RAW from OFFSET on. */
+    static ObjectId fromRaw(byte[] raw, int offset) {
+        return new ObjectId(rawWord(raw, offset, 8),
+                rawWord(raw, offset + 8, 8),
+                (int) rawWord(raw, offset + 16, 4));
+    }
+
+    /** Return the id whose raw bytes are RAW. */
+    static ObjectId fromRaw(byte[] raw) {
+        return fromRaw(raw, 0);
+    }
+
+    /** Store the raw bytes of this id in DEST from OFFSET on. */
+    void copyTo(byte[] dest, int offset) {
+        putWord(dest, offset, w1, 8);
+        putWord(dest, offset + 8, w2, 8);
+        putWord(dest, offset + 16, w3, 4);
+    }
+
+    /** Return the raw bytes of this id. */
+    byte[] toRaw() {
+        byte[] result = new byte[SIZE];
+        copyTo(result, 0);
+        return result;
+    }
+
+    /** Return the hexadecimal form of this id, which names its file. */
+    String toHex() {
+        char[] result = new char[HEX_LENGTH];
+        putHex(result, 0, w1, 8);
+        putHex(result, 16, w2, 8);
+        putHex(result, 32, w3, 4);
+        return new String(result);
+    }
+
+    @Override
+    public String toString() {
+        return toHex();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof ObjectId)) {
+            return false;
+        }
+        ObjectId id = (ObjectId) other;
+        return w1 == id.w1 && w2 == id.w2 && w3 == id.w3;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (w1 >>> 32);
+    }
+
+    @Override
+    public int compareTo(ObjectId other) {
+        int result = Long.compareUnsigned(w1, other.w1);
+        if (result == 0) {
+            result = Long.compareUnsigned(w2, other.w2);
+        }
+        if (result == 0) {
+            result = Integer.compareUnsigned(w3, other.w3);
+        }
+        return result;
+    }
+
+    /** Return the hexadecimal form of RAW, which may be of any length. */
+    static String toHex(byte[] raw) {
+        char[] result = new char[2 * raw.length];
+        for (int i = 0; i < raw.length; i += 1) {
+            result[2 * i] = DIGITS[(raw[i] >> 4) & 0xf];
+            result[2 * i + 1] = DIGITS[raw[i] & 0xf];
+        }
+        return new String(result);
+    }
+
+    /** Return the 20 raw bytes of HEX, a full id or a prefix of one with
+     *  an even number of digits; the bytes past the prefix are zero. */
+    static byte[] toRaw(String hex) {
+        byte[] result = new byte[SIZE];
+        for (int i = 0; i < SIZE && 2 * i + 1 < hex.length(); i += 1) {
+            result[i] = (byte) (digit(hex, 2 * i) << 4
+                    | digit(hex, 2 * i + 1));
+        }
+        return result;
+    }
+
+    /** Return the value of the BYTES bytes whose hexadecimal digits start
+     *  at position START of HEX. */
+    private static long hexWord(String hex, int start, int bytes) {
+        long result = 0;
+        for (int i = 2 * start; i < 2 * (start + bytes); i += 1) {
+            result = result << 4 | digit(hex, i);
+        }
+        return result;
+    }
+
+    /** Return the value of the digit at position I of HEX. */
+    private static int digit(String hex, int i) {
+        char c = hex.charAt(i);
+        int value = c < VALUES.length ? VALUES[c] : -1;
+        if (value < 0) {
+            throw new IllegalArgumentException("not an object id: " + hex);
+        }
+        return value;
+    }
+
+    /** Return the value of the BYTES bytes of RAW from OFFSET on. */
+    private static long rawWord(byte[] raw, int offset, int bytes) {
+        long result = 0;
+        for (int i = offset; i < offset + bytes; i += 1) {
+            result = result << 8 | (raw[i] & 0xff);
+        }
+        return result;
+    }
+
+    /** Store the low BYTES bytes of WORD in DEST from OFFSET on. */
+    private static void putWord(byte[] dest, int offset, long word,
+                                int bytes) {
+        for (int i = bytes - 1; i >= 0; i -= 1) {
+            dest[offset + i] = (byte) word;
+            word >>>= 8;
+        }
+    }
+
+    /** Store the hexadecimal digits of the low BYTES bytes of WORD in DEST
+     *  from OFFSET on. */
+    private static void putHex(char[] dest, int offset, long word,
+                               int bytes) {
+        for (int i = 2 * bytes - 1; i >= 0; i -= 1) {
+            dest[offset + i] = DIGITS[(int) word & 0xf];
+            word >>>= 4;
+        }
+    }
+}
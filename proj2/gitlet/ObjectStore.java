@@ -0,0 +1,659 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+
+import static gitlet.Utils.*;
+
+/** Access to the objects of a gitlet repository, whether they are stored
+ *  loose (one file per object under objects/blobs, objects/commits,
+ *  objects/trees and objects/chunks) or folded into pack files under
+ *  objects/pack.
+ *
+ *  Objects are named by their loose file, e.g. join(BLOBS_DIR, hash); when
+ *  that file does not exist, the packs in the sibling pack directory are
+ *  searched instead.  This lets the same calls work for the local
+ *  repository and for remotes.
+ *  @author skye-ye
+ */
+class ObjectStore {
+
+    /** Names of the loose object directories, indexed by pack kind. */
+    static final List<String> KINDS = Arrays.asList("blobs", "commits",
+            "trees", "chunks");
+
+    /** Name of the pack directory inside an objects directory. */
+    static final String PACK_DIR_NAME = "pack";
+    /** Name of the directory of objects being written inside an objects
+     *  directory. */
+    static final String TMP_DIR_NAME = "tmp";
+
+    /** Pack kind of blobs. */
+    static final byte BLOB_KIND = 0;
+    /** Pack kind of commits. */
+    static final byte COMMIT_KIND = 1;
+    /** Pack kind of trees. */
+    static final byte TREE_KIND = 2;
+    /** Pack kind of the chunks of chunked blobs. */
+    static final byte CHUNK_KIND = 3;
+    /** Number of preceding blobs tried as delta bases for each blob. */
+    private static final int DELTA_WINDOW = 10;
+    /** Longest chain of deltas that reading one blob may have to apply. */
+    private static final int MAX_DELTA_DEPTH = 10;
+    /** Smallest blob worth storing as a delta. */
+    private static final int MIN_DELTA_SIZE = 64;
+
+    /** Open packs, keyed by pack directory. */
+    private static final Map<File, List<PackFile>> PACKS = new HashMap<>();
+    /** Modification time of each pack directory in PACKS when its packs
+     *  were opened. */
+    private static final Map<File, Long> PACK_TIMES = new HashMap<>();
+
+    /** Object files written, or about to be referred to, since the last
+     *  sync. */
+    private static final Set<File> UNSYNCED = new LinkedHashSet<>();
+
+    /** Note that the object file FILE was just written and must be forced
+     *  to disk before a ref may point to it. */
+    static synchronized void written(File file) {
+        UNSYNCED.add(file);
+    }
+
+    /** Note that the blob named by LOOSE, and its chunks if it is a
+     *  chunked blob, must be forced to disk before a ref may point to it.
+     *  This is for blobs written by an earlier command, such as add. */
+    static void willReference(File loose) {
+        if (!loose.isFile()) {
+            return;
+        }
+        written(loose);
+        Chunker.Manifest manifest = Chunker.manifestOf(loose);
+        if (manifest != null) {
+            File chunksDir = join(loose.getParentFile().getParentFile(),
+                    KINDS.get(CHUNK_KIND));
+            for (String id : manifest.ids) {
+                File chunk = join(chunksDir, id);
+                if (chunk.isFile()) {
+                    written(chunk);
+                }
+            }
+        }
+    }
+
+    /** Force every object file noted since the last sync, and the
+     *  directories holding them, to disk.  This costs one fsync per file
+     *  and per directory. */
+    static void sync() {
+        List<File> files;
+        synchronized (ObjectStore.class) {
+            files = new ArrayList<>(UNSYNCED);
+            UNSYNCED.clear();
+        }
+        LinkedHashSet<File> dirs = new LinkedHashSet<>();
+        for (File file : files) {
+            try (FileChannel channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.WRITE)) {
+                channel.force(false);
+            } catch (NoSuchFileException excp) {
+                continue;
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            dirs.add(file.getParentFile());
+        }
+        for (File dir : dirs) {
+            try (FileChannel channel = FileChannel.open(dir.toPath(),
+                    StandardOpenOption.READ)) {
+                channel.force(true);
+            } catch (IOException excp) {
+                /* Not every platform can force a directory; the files
+                 * themselves are on disk. */
+            }
+        }
+        Metrics.count("objects.fsyncs", files.size() + dirs.size());
+    }
+
+    /** Return true iff the object named by LOOSE exists, loose or packed. */
+    static boolean exists(File loose) {
+        if (loose.exists()) {
+            return true;
+        }
+        byte kind = kindOf(loose.getParentFile());
+        for (PackFile pack : packsOf(loose.getParentFile())) {
+            if (pack.contains(kind, loose.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return the contents of the object named by LOOSE.  Throws
+     *  IllegalArgumentException if it is neither loose nor packed. */
+    static byte[] read(File loose) {
+        if (loose.isFile()) {
+            return readContents(loose);
+        }
+        byte kind = kindOf(loose.getParentFile());
+        for (PackFile pack : packsOf(loose.getParentFile())) {
+            long start = Metrics.start();
+            byte[] contents = pack.read(kind, loose.getName());
+            Metrics.stop("read", start);
+            if (contents != null) {
+                Metrics.read("readPacked", contents.length);
+                return contents;
+            }
+        }
+        throw new IllegalArgumentException("no such object "
+                + loose.getName());
+    }
+
+    /** Return the contents of the blob named by LOOSE, assembled from its
+     *  chunks if it is a chunked blob. */
+    static byte[] readBlob(File loose) {
+        byte[] stored = read(loose);
+        if (!Chunker.isManifest(stored)) {
+            return stored;
+        }
+        return Chunker.assemble(Chunker.Manifest.fromBytes(stored),
+                loose.getParentFile().getParentFile());
+    }
+
+    /** Return the size of the contents of the blob named by LOOSE, without
+     *  reading them. */
+    static long blobSize(File loose) {
+        Chunker.Manifest manifest = Chunker.manifestOf(loose);
+        return manifest == null ? sizeOf(loose) : manifest.size;
+    }
+
+    /** Store the working file FILE as a blob under OBJECTSDIR, reading it
+     *  only once, and return its id.  Large files become chunked blobs. */
+    static String storeBlob(File file, File objectsDir) {
+        if (!Chunker.wanted(file)) {
+            return hashAndCopy(file, join(objectsDir, KINDS.get(BLOB_KIND)));
+        }
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            return Chunker.store(in, objectsDir);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Store CONTENTS as a blob under OBJECTSDIR unless it is there
+     *  already, and return its id.  Large contents become chunked blobs. */
+    static String storeBlob(byte[] contents, File objectsDir) {
+        if (Chunker.wanted(contents)) {
+            return Chunker.store(contents, objectsDir);
+        }
+        String hash = sha1(contents);
+        File blob = join(objectsDir, KINDS.get(BLOB_KIND), hash);
+        if (!exists(blob)) {
+            writeContents(blob, contents);
+            written(blob);
+        }
+        return hash;
+    }
+
+    /** Write the contents of the blob named by LOOSE to the file TARGET.
+     *  A loose object is copied with FileChannel.transferTo, so its bytes
+     *  never pass through the Java heap, and a chunked blob is written one
+     *  chunk at a time. */
+    static void copyTo(File loose, File target) {
+        Chunker.Manifest manifest = null;
+        if (!loose.isFile()) {
+            byte[] stored = read(loose);
+            if (!Chunker.isManifest(stored)) {
+                writeContents(target, stored);
+                return;
+            }
+            manifest = Chunker.Manifest.fromBytes(stored);
+        } else if (Chunker.isManifest(loose)) {
+            manifest = Chunker.Manifest.fromBytes(readContents(loose));
+        }
+        try (FileChannel out = FileChannel.open(target.toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (manifest == null) {
+                appendTo(loose, out);
+            } else {
+                Chunker.assemble(manifest,
+                        loose.getParentFile().getParentFile(), out);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Append the contents of the blob named by LOOSE to OUT, one chunk at
+     *  a time if it is a chunked blob. */
+    static void appendBlob(File loose, FileChannel out) throws IOException {
+        Chunker.Manifest manifest = Chunker.manifestOf(loose);
+        if (manifest == null) {
+            appendTo(loose, out);
+        } else {
+            Chunker.assemble(manifest, loose.getParentFile().getParentFile(),
+                    out);
+        }
+    }
+
+    /** Append the contents of the object named by LOOSE to OUT. */
+    static void appendTo(File loose, FileChannel out) throws IOException {
+        if (!loose.isFile()) {
+            ByteBuffer buf = ByteBuffer.wrap(read(loose));
+            while (buf.hasRemaining()) {
+                out.write(buf);
+            }
+            return;
+        }
+        try (FileChannel in = FileChannel.open(loose.toPath(),
+                StandardOpenOption.READ)) {
+            long size = in.size();
+            for (long pos = 0; pos < size; ) {
+                pos += in.transferTo(pos, size - pos, out);
+            }
+        }
+    }
+
+    /** Return the contents of the object named by LOOSE as a String. */
+    static String readAsString(File loose) {
+        return new String(read(loose), StandardCharsets.UTF_8);
+    }
+
+    /** Return the ids of all objects in the loose directory DIR and in the
+     *  packs beside it, in lexicographic order.  Returns null if DIR does
+     *  not denote a directory. */
+    static List<String> list(File dir) {
+        List<String> names = plainFilenamesIn(dir);
+        if (names == null) {
+            return null;
+        }
+        List<String> loose = new ArrayList<>();
+        for (String name : names) {
+            if (isId(name)) {
+                loose.add(name);
+            }
+        }
+        List<PackFile> packs = packsOf(dir);
+        if (packs.isEmpty()) {
+            return loose;
+        }
+        TreeSet<String> result = new TreeSet<>(loose);
+        byte kind = kindOf(dir);
+        for (PackFile pack : packs) {
+            result.addAll(pack.names(kind));
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Fold every loose object and every existing pack under OBJECTSDIR
+     *  into a single new pack, then delete the loose files and old packs.
+     *  Blobs are stored as deltas against similar blobs where that saves
+     *  space.  Objects are read one at a time as they are written, so
+     *  memory does not grow with the size of the repository.  Returns the
+     *  number of objects in the new pack. */
+    static int repack(File objectsDir) {
+        File packDir = join(objectsDir, PACK_DIR_NAME);
+        List<PackFile> oldPacks = packsOf(join(objectsDir, KINDS.get(0)));
+        List<Source> sources = new ArrayList<>();
+        List<File> looseFiles = new ArrayList<>();
+
+        for (byte kind = 0; kind < KINDS.size(); kind += 1) {
+            File dir = join(objectsDir, KINDS.get(kind));
+            List<String> names = list(dir);
+            if (names == null) {
+                continue;
+            }
+            for (String name : names) {
+                File loose = join(dir, name);
+                sources.add(new Source(kind, name, sizeOf(loose),
+                        () -> read(loose)));
+                if (loose.isFile()) {
+                    looseFiles.add(loose);
+                }
+            }
+        }
+        if (looseFiles.isEmpty() && oldPacks.size() <= 1) {
+            return sources.size();
+        }
+
+        PackFile newPack = pack(packDir, sources);
+        synchronized (ObjectStore.class) {
+            PACKS.remove(packDir);
+        }
+        for (PackFile pack : oldPacks) {
+            if (!pack.getIndexFile().equals(newPack.getIndexFile())) {
+                pack.getIndexFile().delete();
+                pack.getDataFile().delete();
+            }
+        }
+        for (File loose : looseFiles) {
+            loose.delete();
+        }
+        return sources.size();
+    }
+
+    /** Delete the objects under OBJECTSDIR whose ids are not in LIVE, a
+     *  set of ids for each pack kind, indexed like KINDS.  Loose objects
+     *  and packs modified at or after the time BEFORE, in milliseconds,
+     *  are kept whole, since a command running concurrently, such as a
+     *  fetch, may be about to refer to them.  Older packs holding dead
+     *  objects are rewritten as one pack of their live objects, and
+     *  temporary files left in the tmp directory by interrupted writes are
+     *  deleted.  Returns the number of objects removed and the number of
+     *  bytes reclaimed. */
+    static long[] prune(File objectsDir, List<Set<ObjectId>> live,
+                        long before) {
+        long removed = 0;
+        long reclaimed = 0;
+        File tmpDir = join(objectsDir, TMP_DIR_NAME);
+        List<String> temps = plainFilenamesIn(tmpDir);
+        if (temps != null) {
+            for (String name : temps) {
+                File temp = join(tmpDir, name);
+                long length = temp.length();
+                if (temp.lastModified() < before && temp.delete()) {
+                    reclaimed += length;
+                }
+            }
+        }
+        for (byte kind = 0; kind < KINDS.size(); kind += 1) {
+            File dir = join(objectsDir, KINDS.get(kind));
+            List<String> names = plainFilenamesIn(dir);
+            if (names == null) {
+                continue;
+            }
+            for (String name : names) {
+                File loose = join(dir, name);
+                long length = loose.length();
+                boolean isLive = isId(name)
+                        && live.get(kind).contains(ObjectId.fromHex(name));
+                if (!isLive && loose.lastModified() < before
+                        && loose.delete()) {
+                    removed += 1;
+                    reclaimed += length;
+                }
+            }
+        }
+
+        File packDir = join(objectsDir, PACK_DIR_NAME);
+        List<PackFile> oldPacks = new ArrayList<>();
+        for (PackFile pack : packsOf(join(objectsDir, KINDS.get(0)))) {
+            if (pack.getDataFile().lastModified() < before) {
+                oldPacks.add(pack);
+            }
+        }
+        List<Source> sources = new ArrayList<>();
+        HashSet<String> seen = new HashSet<>();
+        long dead = 0;
+        long oldSize = 0;
+        for (PackFile pack : oldPacks) {
+            oldSize += pack.getDataFile().length()
+                    + pack.getIndexFile().length();
+            for (byte kind = 0; kind < KINDS.size(); kind += 1) {
+                byte k = kind;
+                for (String name : pack.names(kind)) {
+                    if (!seen.add(kind + name)) {
+                        continue;
+                    }
+                    if (live.get(kind).contains(ObjectId.fromHex(name))) {
+                        sources.add(new Source(kind, name,
+                                pack.size(kind, name),
+                                () -> pack.read(k, name)));
+                    } else {
+                        dead += 1;
+                    }
+                }
+            }
+        }
+        if (dead == 0) {
+            return new long[] {removed, reclaimed};
+        }
+
+        long newSize = 0;
+        File newIndex = null;
+        if (!sources.isEmpty()) {
+            PackFile newPack = pack(packDir, sources);
+            newIndex = newPack.getIndexFile();
+            newSize = newPack.getDataFile().length() + newIndex.length();
+        }
+        synchronized (ObjectStore.class) {
+            PACKS.remove(packDir);
+        }
+        for (PackFile pack : oldPacks) {
+            if (!pack.getIndexFile().equals(newIndex)) {
+                pack.getIndexFile().delete();
+                pack.getDataFile().delete();
+            }
+        }
+        return new long[] {removed + dead, reclaimed + oldSize - newSize};
+    }
+
+    /** Store the objects named by the loose object files OBJECTS, which
+     *  may lie in another repository and be packed there, as one new pack
+     *  under OBJECTSDIR, with blobs stored as deltas where that saves
+     *  space.  Each object is read only when it is written, as in repack.
+     *  Existing objects are left as they are.  Returns the total size of
+     *  the objects. */
+    static long writePack(File objectsDir, List<File> objects) {
+        if (objects.isEmpty()) {
+            return 0;
+        }
+        File packDir = join(objectsDir, PACK_DIR_NAME);
+        List<Source> sources = new ArrayList<>();
+        long bytes = 0;
+        for (File loose : objects) {
+            long size = sizeOf(loose);
+            sources.add(new Source(kindOf(loose.getParentFile()),
+                    loose.getName(), size, () -> read(loose)));
+            bytes += size;
+        }
+        pack(packDir, sources);
+        synchronized (ObjectStore.class) {
+            PACKS.remove(packDir);
+        }
+        return bytes;
+    }
+
+    /** An object to be packed, whose contents are read only when it is
+     *  written. */
+    private static class Source {
+        /** The kind of the object. */
+        final byte kind;
+        /** The id of the object. */
+        final String hash;
+        /** The size of the contents of the object. */
+        final long size;
+        /** Reads the contents of the object. */
+        final Supplier<byte[]> contents;
+
+        Source(byte kind, String hash, long size, Supplier<byte[]> contents) {
+            this.kind = kind;
+            this.hash = hash;
+            this.size = size;
+            this.contents = contents;
+        }
+    }
+
+    /** A blob in the delta window, with its contents. */
+    private static class DeltaBase {
+        /** The id of the blob. */
+        final String hash;
+        /** The contents of the blob. */
+        final byte[] contents;
+        /** The length of the delta chain the blob is stored at the end
+         *  of, 0 if it is stored whole. */
+        final int depth;
+
+        DeltaBase(String hash, byte[] contents, int depth) {
+            this.hash = hash;
+            this.contents = contents;
+            this.depth = depth;
+        }
+    }
+
+    /** Write the objects SOURCES as one new pack in PACKDIR and return it.
+     *
+     *  Commits, trees and chunks are written first, and the name each blob
+     *  has in the trees is noted on the way.  Blobs follow, ordered by that
+     *  name and then by decreasing size, so successive versions of a file
+     *  sit next to each other with the newest, usually largest, first.
+     *  Each blob is tried against the DELTA_WINDOW blobs before it, and
+     *  stored as the smallest resulting delta if that is under half its
+     *  size and keeps every delta chain within MAX_DELTA_DEPTH.  Only the
+     *  blobs in that window are held in memory. */
+    private static PackFile pack(File packDir, List<Source> sources) {
+        HashMap<String, String> names = new HashMap<>();
+        List<Source> blobs = new ArrayList<>();
+        try (PackFile.Writer writer = new PackFile.Writer(packDir)) {
+            for (Source source : sources) {
+                if (source.kind == BLOB_KIND) {
+                    blobs.add(source);
+                    continue;
+                }
+                byte[] contents = source.contents.get();
+                if (source.kind == TREE_KIND) {
+                    for (Map.Entry<String, Tree.Entry> item
+                            : Tree.fromBytes(contents).getEntries()
+                            .entrySet()) {
+                        if (!item.getValue().isTree) {
+                            names.putIfAbsent(item.getValue().id.toHex(),
+                                    item.getKey());
+                        }
+                    }
+                }
+                writer.add(source.kind, source.hash, contents);
+            }
+            blobs.sort(Comparator.comparing(
+                    (Source b) -> names.getOrDefault(b.hash, ""))
+                    .thenComparing(b -> -b.size));
+
+            ArrayDeque<DeltaBase> window = new ArrayDeque<>();
+            for (Source blob : blobs) {
+                byte[] contents = blob.contents.get();
+                if (contents.length < MIN_DELTA_SIZE) {
+                    writer.add(BLOB_KIND, blob.hash, contents);
+                    continue;
+                }
+                DeltaBase bestBase = null;
+                byte[] best = null;
+                for (DeltaBase base : window) {
+                    if (base.depth >= MAX_DELTA_DEPTH) {
+                        continue;
+                    }
+                    byte[] delta = Delta.encode(base.contents, contents);
+                    if (delta.length < contents.length / 2
+                            && (best == null || delta.length < best.length)) {
+                        bestBase = base;
+                        best = delta;
+                    }
+                }
+                int depth = 0;
+                if (bestBase == null) {
+                    writer.add(BLOB_KIND, blob.hash, contents);
+                } else {
+                    writer.addDelta(BLOB_KIND, blob.hash, bestBase.hash, best);
+                    depth = bestBase.depth + 1;
+                }
+                window.addLast(new DeltaBase(blob.hash, contents, depth));
+                if (window.size() > DELTA_WINDOW) {
+                    window.removeFirst();
+                }
+            }
+            return writer.finish();
+        }
+    }
+
+    /** Return the size of the contents of the object named by LOOSE,
+     *  without reading them. */
+    private static long sizeOf(File loose) {
+        if (loose.isFile()) {
+            return loose.length();
+        }
+        byte kind = kindOf(loose.getParentFile());
+        for (PackFile pack : packsOf(loose.getParentFile())) {
+            long size = pack.size(kind, loose.getName());
+            if (size >= 0) {
+                return size;
+            }
+        }
+        throw new IllegalArgumentException("no such object "
+                + loose.getName());
+    }
+
+    /** Return a new empty file in which an object of the loose directory
+     *  DIR can be written before it is renamed into DIR.  It lies in the
+     *  tmp directory beside DIR, so that an interrupted write never leaves
+     *  a file that looks like an object. */
+    static File createTempFile(File dir) throws IOException {
+        File tmpDir = join(dir.getParentFile(), TMP_DIR_NAME);
+        tmpDir.mkdirs();
+        return File.createTempFile("object", ".tmp", tmpDir);
+    }
+
+    /** Return true iff NAME is a full hexadecimal object id. */
+    private static boolean isId(String name) {
+        if (name.length() != ObjectId.HEX_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i += 1) {
+            if (Character.digit(name.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the packs beside the loose object directory DIR. */
+    private static synchronized List<PackFile> packsOf(File dir) {
+        File packDir = join(dir.getParentFile(), PACK_DIR_NAME);
+        List<PackFile> packs = PACKS.get(packDir);
+        if (packs == null) {
+            packs = new ArrayList<>();
+            List<String> files = plainFilenamesIn(packDir);
+            if (files != null) {
+                for (String file : files) {
+                    if (file.endsWith(PackFile.INDEX_SUFFIX)) {
+                        packs.add(new PackFile(join(packDir, file)));
+                    }
+                }
+            }
+            PACKS.put(packDir, packs);
+            PACK_TIMES.put(packDir, packDir.lastModified());
+        }
+        return packs;
+    }
+
+    /** Forget the open packs of every pack directory whose packs have
+     *  been added or removed by another process since they were opened. */
+    static synchronized void refresh() {
+        PACKS.keySet().removeIf(packDir ->
+                packDir.lastModified() != PACK_TIMES.get(packDir));
+    }
+
+    /** Return the pack kind of objects in the loose directory DIR. */
+    private static byte kindOf(File dir) {
+        int kind = KINDS.indexOf(dir.getName());
+        if (kind < 0) {
+            throw new IllegalArgumentException("not an object directory");
+        }
+        return (byte) kind;
+    }
+}
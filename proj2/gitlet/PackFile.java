@@ -0,0 +1,378 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/** A pack of gitlet objects: an append-only data file holding the
+ *  records of many objects back to back, plus a sorted index that maps
+ *  (kind, id) to the offset and length of each record in the data file.
+ *
+ *  A record starts with a type byte: FULL records are followed by the
+ *  raw contents, and DELTA records by the raw id of a base object of the
+ *  same kind in the same pack and a Delta against its contents.
+ *
+ *  Index layout: the magic "GIDX", a version int and an entry count,
+ *  followed by fixed-width entries sorted by kind and then by raw id.
+ *  Each entry is a kind byte, the 20-byte raw SHA-1, an 8-byte offset
+ *  and a 4-byte length, so lookups are a binary search over the
+ *  memory-mapped index.
+ *  @author skye-ye
+ */
+class PackFile {
+
+    /** Suffix of pack data files. */
+    static final String PACK_SUFFIX = ".pack";
+    /** Suffix of pack index files. */
+    static final String INDEX_SUFFIX = ".idx";
+
+    /** Magic number at the start of a data file. */
+    private static final int PACK_MAGIC = 0x4750414b;
+    /** Magic number at the start of an index file. */
+    private static final int INDEX_MAGIC = 0x47494458;
+    /** Current format version of the data file. */
+    private static final int PACK_VERSION = 2;
+    /** Current format version of the index file. */
+    private static final int INDEX_VERSION = 1;
+    /** Record type of an object stored whole. */
+    private static final byte FULL = 0;
+    /** Record type of an object stored as a delta. */
+    private static final byte DELTA = 1;
+    /** Size of the header of both files. */
+    private static final int HEADER_SIZE = 12;
+    /** Size of a raw SHA-1. */
+    private static final int ID_SIZE = 20;
+    /** Size of one index entry. */
+    private static final int ENTRY_SIZE = 1 + ID_SIZE + 8 + 4;
+
+    /** The data file of this pack. */
+    private final File dataFile;
+    /** The index file of this pack. */
+    private final File indexFile;
+    /** The mapped index. */
+    private final MappedByteBuffer index;
+    /** Number of objects in this pack. */
+    private final int count;
+
+    /** Open the pack whose index is INDEXFILE. */
+    PackFile(File indexFile) {
+        this.indexFile = indexFile;
+        String name = indexFile.getName();
+        this.dataFile = new File(indexFile.getParentFile(),
+                name.substring(0, name.length() - INDEX_SUFFIX.length())
+                        + PACK_SUFFIX);
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(),
+                StandardOpenOption.READ)) {
+            index = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (index.getInt(0) != INDEX_MAGIC
+                || index.getInt(4) != INDEX_VERSION) {
+            throw error("Corrupt pack index %s.", indexFile.getName());
+        }
+        count = index.getInt(8);
+        try (RandomAccessFile in = new RandomAccessFile(dataFile, "r")) {
+            if (in.readInt() != PACK_MAGIC) {
+                throw error("Corrupt pack %s.", dataFile.getName());
+            }
+            int version = in.readInt();
+            if (version != PACK_VERSION) {
+                throw error("Unsupported pack format %d.", version);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the data file of this pack. */
+    File getDataFile() {
+        return dataFile;
+    }
+
+    /** Return the index file of this pack. */
+    File getIndexFile() {
+        return indexFile;
+    }
+
+    /** Return true iff this pack holds object HASH of kind KIND. */
+    boolean contains(byte kind, String hash) {
+        return find(kind, toRaw(hash)) >= 0;
+    }
+
+    /** Return the contents of object HASH of kind KIND, or null if it is
+     *  not in this pack.  Delta records are resolved against their base. */
+    byte[] read(byte kind, String hash) {
+        int i = find(kind, toRaw(hash));
+        if (i < 0) {
+            return null;
+        }
+        int pos = HEADER_SIZE + i * ENTRY_SIZE + 1 + ID_SIZE;
+        long offset = index.getLong(pos);
+        int length = index.getInt(pos + 8);
+        byte[] record = new byte[length];
+        try (RandomAccessFile in = new RandomAccessFile(dataFile, "r")) {
+            in.seek(offset);
+            in.readFully(record);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (record[0] == FULL) {
+            return Arrays.copyOfRange(record, 1, record.length);
+        }
+        String base = toHex(Arrays.copyOfRange(record, 1, 1 + ID_SIZE));
+        byte[] baseContents = read(kind, base);
+        if (baseContents == null) {
+            throw error("Missing delta base %s.", base);
+        }
+        return Delta.apply(baseContents,
+                Arrays.copyOfRange(record, 1 + ID_SIZE, record.length));
+    }
+
+    /** Return the size of the contents of object HASH of kind KIND, or
+     *  -1 if it is not in this pack.  Only the start of its record is
+     *  read. */
+    long size(byte kind, String hash) {
+        int i = find(kind, toRaw(hash));
+        if (i < 0) {
+            return -1;
+        }
+        int pos = HEADER_SIZE + i * ENTRY_SIZE + 1 + ID_SIZE;
+        long offset = index.getLong(pos);
+        int length = index.getInt(pos + 8);
+        byte[] head = new byte[Math.min(length, 1 + ID_SIZE + 10)];
+        try (RandomAccessFile in = new RandomAccessFile(dataFile, "r")) {
+            in.seek(offset);
+            in.readFully(head);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (head[0] == FULL) {
+            return length - 1;
+        }
+        return Delta.size(Arrays.copyOfRange(head, 1 + ID_SIZE,
+                head.length));
+    }
+
+    /** Return the ids of all objects of kind KIND in this pack, in
+     *  lexicographic order. */
+    List<String> names(byte kind) {
+        List<String> result = new ArrayList<>();
+        byte[] raw = new byte[ID_SIZE];
+        for (int i = lowerBound(kind, new byte[ID_SIZE]); i < count; i += 1) {
+            int pos = HEADER_SIZE + i * ENTRY_SIZE;
+            if (index.get(pos) != kind) {
+                break;
+            }
+            index.get(pos + 1, raw);
+            result.add(toHex(raw));
+        }
+        return result;
+    }
+
+    /** Return the position of the entry (KIND, RAW), or -1. */
+    private int find(byte kind, byte[] raw) {
+        int i = lowerBound(kind, raw);
+        if (i < count && compareEntry(i, kind, raw) == 0) {
+            return i;
+        }
+        return -1;
+    }
+
+    /** Return the first entry position not less than (KIND, RAW). */
+    private int lowerBound(byte kind, byte[] raw) {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareEntry(mid, kind, raw) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Compare entry I of the index with (KIND, RAW). */
+    private int compareEntry(int i, byte kind, byte[] raw) {
+        int pos = HEADER_SIZE + i * ENTRY_SIZE;
+        int cmp = Byte.compare(index.get(pos), kind);
+        for (int k = 0; cmp == 0 && k < ID_SIZE; k += 1) {
+            cmp = Integer.compare(index.get(pos + 1 + k) & 0xff,
+                    raw[k] & 0xff);
+        }
+        return cmp;
+    }
+
+    /** Writes a new pack one record at a time, holding only the index
+     *  entries in memory.  The data file is written under a temporary name
+     *  and the index last, and both are moved into place by rename, so
+     *  readers never see a half-written pack.  A writer closed before
+     *  finish deletes what it wrote. */
+    static class Writer implements AutoCloseable {
+        /** The directory of the new pack. */
+        private final File packDir;
+        /** The data file being written. */
+        private final File dataTemp;
+        /** The channel of the data file. */
+        private final FileChannel channel;
+        /** The buffered stream over CHANNEL. */
+        private final DataOutputStream out;
+        /** The index entries written so far, each a kind byte, a raw id, an
+         *  offset and a length. */
+        private final List<ByteBuffer> entries = new ArrayList<>();
+        /** Offset of the next record in the data file. */
+        private long offset = HEADER_SIZE;
+        /** True once the pack has been moved into place. */
+        private boolean finished;
+
+        /** A writer of a new pack in PACKDIR. */
+        Writer(File packDir) {
+            this.packDir = packDir;
+            packDir.mkdirs();
+            try {
+                dataTemp = File.createTempFile("pack-", PACK_SUFFIX + ".tmp",
+                        packDir);
+                channel = FileChannel.open(dataTemp.toPath(),
+                        StandardOpenOption.WRITE);
+                out = new DataOutputStream(new BufferedOutputStream(
+                        Channels.newOutputStream(channel), BUFFER_SIZE));
+                out.writeInt(PACK_MAGIC);
+                out.writeInt(PACK_VERSION);
+                out.writeInt(0);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /** Write object HASH of kind KIND, whose contents are CONTENTS. */
+        void add(byte kind, String hash, byte[] contents) {
+            write(kind, hash, FULL, null, contents);
+        }
+
+        /** Write object HASH of kind KIND as DELTA against object BASE of
+         *  the same kind, which must be in the same pack. */
+        void addDelta(byte kind, String hash, String base, byte[] delta) {
+            write(kind, hash, DELTA, toRaw(base), delta);
+        }
+
+        /** Write a record of type TYPE for object HASH of kind KIND: the
+         *  type byte, HEAD unless it is null, then BODY. */
+        private void write(byte kind, String hash, byte type, byte[] head,
+                           byte[] body) {
+            int length = 1 + (head == null ? 0 : head.length) + body.length;
+            try {
+                out.writeByte(type);
+                if (head != null) {
+                    out.write(head);
+                }
+                out.write(body);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+            entry.put(kind).put(toRaw(hash)).putLong(offset).putInt(length);
+            entries.add(entry);
+            offset += length;
+        }
+
+        /** Move the pack into place and return it.  It is named by the
+         *  SHA-1 of its sorted ids. */
+        PackFile finish() {
+            entries.sort(PackFile::compareEntries);
+            List<Object> ids = new ArrayList<>();
+            byte[] raw = new byte[ID_SIZE];
+            for (ByteBuffer entry : entries) {
+                entry.position(1);
+                entry.get(raw);
+                ids.add(toHex(raw));
+            }
+            String name = "pack-" + sha1(ids);
+            File dataFile = join(packDir, name + PACK_SUFFIX);
+            File indexFile = join(packDir, name + INDEX_SUFFIX);
+            File indexTemp = join(packDir, name + INDEX_SUFFIX + ".tmp");
+
+            try {
+                out.flush();
+                channel.write(ByteBuffer.allocate(4).putInt(0, entries.size()),
+                        8);
+                out.close();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE
+                    + entries.size() * ENTRY_SIZE);
+            buf.putInt(INDEX_MAGIC).putInt(INDEX_VERSION)
+                    .putInt(entries.size());
+            for (ByteBuffer entry : entries) {
+                buf.put(entry.array());
+            }
+            writeContents(indexTemp, buf.array());
+
+            try {
+                Files.move(dataTemp.toPath(), dataFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                Files.move(indexTemp.toPath(), indexFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            finished = true;
+            ObjectStore.written(dataFile);
+            ObjectStore.written(indexFile);
+            return new PackFile(indexFile);
+        }
+
+        @Override
+        public void close() {
+            if (finished) {
+                return;
+            }
+            try {
+                out.close();
+            } catch (IOException excp) {
+                /* Already failing; the temporary file goes anyway. */
+            }
+            dataTemp.delete();
+        }
+    }
+
+    /** Compare the index entries A and B by kind and then by raw id. */
+    private static int compareEntries(ByteBuffer a, ByteBuffer b) {
+        byte[] x = a.array();
+        byte[] y = b.array();
+        int cmp = 0;
+        for (int k = 0; cmp == 0 && k < 1 + ID_SIZE; k += 1) {
+            cmp = Integer.compare(x[k] & 0xff, y[k] & 0xff);
+        }
+        return cmp;
+    }
+
+    /** Return the 20 raw bytes of the hexadecimal id HASH. */
+    static byte[] toRaw(String hash) {
+        return ObjectId.toRaw(hash);
+    }
+
+    /** Return the hexadecimal form of the raw id RAW. */
+    static String toHex(byte[] raw) {
+        return ObjectId.toHex(raw);
+    }
+}
@@ -0,0 +1,300 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import static gitlet.Utils.*;
+
+/** A group of updates to the refs of a repository (HEAD, the current
+ *  branch name and the branch heads) that take effect together.
+ *
+ *  Committing a transaction first forces to disk the objects written
+ *  since the last transaction, and the staged blobs a commit refers to,
+ *  so that a durable ref never points to a lost object; that costs one
+ *  fsync per new object file and per directory holding one.  It then
+ *  appends one record holding every update, with the old and new value
+ *  of each ref, to the ref-log file and forces it to disk, which is the
+ *  only fsync the refs themselves cost.  Each ref is then replaced by
+ *  writing its new value to a lock file and renaming it over the ref, so
+ *  a ref is never seen half written.  If the process dies before all
+ *  refs are renamed, the record is already durable: recover, run before
+ *  the next command reads any ref, replays the last record, and
+ *  truncates it away instead if it was itself torn, in which case no ref
+ *  had been touched yet.
+ *
+ *  A batch may defer commits.  The updates of deferred transactions are
+ *  then merged, seen by read, and committed as one transaction at the
+ *  next flush, so a whole batch costs one fsync for its refs.
+ *
+ *  A record is one line of tab-separated fields: the time in epoch
+ *  milliseconds, the number of updates, the name, old value and new
+ *  value of each update, and a CRC-32 of everything before it.  A ref
+ *  that does not exist has the value "-".
+ *  @author skye-ye
+ */
+class RefTransaction {
+
+    /** Name of the ref log inside a .gitlet directory. */
+    static final String LOG_NAME = "ref-log";
+
+    /** The value of a ref that does not exist. */
+    private static final String NO_VALUE = "-";
+    /** Size of the first chunk read from the end of the log by recover. */
+    private static final int TAIL_SIZE = 4096;
+
+    /** True iff commits are deferred until the next flush. */
+    private static boolean deferring;
+    /** The deferred updates, keyed by .gitlet directory. */
+    private static final Map<File, LinkedHashMap<String, String>> DEFERRED =
+            new LinkedHashMap<>();
+
+    /** The .gitlet directory of the repository. */
+    private final File gitletDir;
+    /** The new value of each updated ref, keyed by its path relative to
+     *  the .gitlet directory, in the order the updates were made. */
+    private final LinkedHashMap<String, String> updates = new LinkedHashMap<>();
+
+    /** A new transaction on the refs of the repository in GITLETDIR. */
+    RefTransaction(File gitletDir) {
+        this.gitletDir = gitletDir;
+    }
+
+    /** Set the ref REF, a path such as "HEAD" or "heads/master" relative
+     *  to the .gitlet directory, to VALUE when this transaction commits.
+     *  Returns this transaction. */
+    RefTransaction update(String ref, String value) {
+        updates.put(ref, value);
+        return this;
+    }
+
+    /** Delete the ref REF when this transaction commits.  Returns this
+     *  transaction. */
+    RefTransaction delete(String ref) {
+        updates.put(ref, NO_VALUE);
+        return this;
+    }
+
+    /** Log the updates durably and apply them, or only remember them
+     *  until the next flush if commits are deferred. */
+    void commit() {
+        if (updates.isEmpty()) {
+            return;
+        }
+        synchronized (RefTransaction.class) {
+            if (deferring) {
+                DEFERRED.computeIfAbsent(gitletDir,
+                        dir -> new LinkedHashMap<>()).putAll(updates);
+                return;
+            }
+            log();
+        }
+    }
+
+    /** Append the updates to the log, force it to disk and apply them. */
+    private void log() {
+        StringBuilder record = new StringBuilder();
+        record.append(System.currentTimeMillis()).append('\t')
+                .append(updates.size()).append('\t');
+        for (Map.Entry<String, String> update : updates.entrySet()) {
+            record.append(update.getKey()).append('\t')
+                    .append(stored(gitletDir, update.getKey())).append('\t')
+                    .append(update.getValue()).append('\t');
+        }
+        record.append(checksum(record.toString())).append('\n');
+        ObjectStore.sync();
+        append(join(gitletDir, LOG_NAME), record.toString());
+        apply(gitletDir, updates);
+        Metrics.count("refs.updates", updates.size());
+    }
+
+    /** Defer commits from now on iff DEFER. */
+    static synchronized void defer(boolean defer) {
+        deferring = defer;
+    }
+
+    /** Commit the deferred updates of each repository as one
+     *  transaction. */
+    static synchronized void flush() {
+        for (Map.Entry<File, LinkedHashMap<String, String>> deferred
+                : DEFERRED.entrySet()) {
+            RefTransaction transaction = new RefTransaction(deferred.getKey());
+            transaction.updates.putAll(deferred.getValue());
+            transaction.log();
+        }
+        DEFERRED.clear();
+    }
+
+    /** Return the value of the ref REF of the repository in GITLETDIR,
+     *  counting deferred updates, or null if it does not exist. */
+    static synchronized String read(File gitletDir, String ref) {
+        LinkedHashMap<String, String> deferred = DEFERRED.get(gitletDir);
+        String value = deferred == null ? null : deferred.get(ref);
+        if (value == null) {
+            value = stored(gitletDir, ref);
+        }
+        return value.equals(NO_VALUE) ? null : value;
+    }
+
+    /** Finish or discard the last transaction on the refs of the
+     *  repository in GITLETDIR, if it was interrupted. */
+    static void recover(File gitletDir) {
+        File log = join(gitletDir, LOG_NAME);
+        if (!log.isFile()) {
+            return;
+        }
+        synchronized (RefTransaction.class) {
+            try (RandomAccessFile file = new RandomAccessFile(log, "rw")) {
+                /* Find the start of the last record */
+                long length = file.length();
+                if (length == 0) {
+                    return;
+                }
+                file.seek(length - 1);
+                boolean complete = file.read() == '\n';
+                int size = TAIL_SIZE;
+                long start;
+                byte[] tail;
+                int from;
+                while (true) {
+                    start = Math.max(0, length - size);
+                    tail = new byte[(int) (length - start)];
+                    file.seek(start);
+                    file.readFully(tail);
+                    from = lastNewline(tail, tail.length - (complete ? 2 : 1))
+                            + 1;
+                    if (from > 0 || start == 0) {
+                        break;
+                    }
+                    size *= 2;
+                }
+
+                /* Discard a record that was not completely written */
+                LinkedHashMap<String, String> updates = !complete ? null
+                        : parse(new String(tail, from, tail.length - from - 1,
+                        StandardCharsets.UTF_8));
+                if (updates == null) {
+                    file.setLength(start + from);
+                    Metrics.count("refs.discarded", 1);
+                    return;
+                }
+
+                /* Replay the last record where it did not take effect */
+                LinkedHashMap<String, String> pending = new LinkedHashMap<>();
+                for (Map.Entry<String, String> update : updates.entrySet()) {
+                    if (!update.getValue().equals(stored(gitletDir,
+                            update.getKey()))) {
+                        pending.put(update.getKey(), update.getValue());
+                    }
+                }
+                if (!pending.isEmpty()) {
+                    apply(gitletDir, pending);
+                    Metrics.count("refs.replayed", pending.size());
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Return the index of the last newline in BYTES at or before FROM,
+     *  or -1 if there is none. */
+    private static int lastNewline(byte[] bytes, int from) {
+        for (int i = from; i >= 0; i -= 1) {
+            if (bytes[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Return the updates in the record LINE, without its newline, or
+     *  null if it is malformed or its checksum does not match. */
+    private static LinkedHashMap<String, String> parse(String line) {
+        int split = line.lastIndexOf('\t');
+        if (split < 0 || !line.substring(split + 1).equals(
+                checksum(line.substring(0, split + 1)))) {
+            return null;
+        }
+        String[] fields = line.substring(0, split).split("\t", -1);
+        int count;
+        try {
+            count = Integer.parseInt(fields[1]);
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            return null;
+        }
+        if (fields.length != 2 + 3 * count) {
+            return null;
+        }
+        LinkedHashMap<String, String> updates = new LinkedHashMap<>();
+        for (int i = 0; i < count; i += 1) {
+            updates.put(fields[2 + 3 * i], fields[4 + 3 * i]);
+        }
+        return updates;
+    }
+
+    /** Return the CRC-32 of TEXT in hexadecimal. */
+    private static String checksum(String text) {
+        CRC32 crc = new CRC32();
+        crc.update(text.getBytes(StandardCharsets.UTF_8));
+        return Long.toHexString(crc.getValue());
+    }
+
+    /** Return the value of the ref REF of the repository in GITLETDIR, or
+     *  "-" if it does not exist. */
+    private static String stored(File gitletDir, String ref) {
+        File file = join(gitletDir, ref);
+        return file.isFile() ? readContentsAsString(file) : NO_VALUE;
+    }
+
+    /** Append RECORD to the file LOG and force it to disk. */
+    private static void append(File log, String record) {
+        try (FileChannel channel = FileChannel.open(log.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            ByteBuffer buf = ByteBuffer.wrap(
+                    record.getBytes(StandardCharsets.UTF_8));
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+            channel.force(false);
+            Metrics.count("refs.fsyncs", 1);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Set each ref in UPDATES of the repository in GITLETDIR to its new
+     *  value, atomically for each ref. */
+    private static void apply(File gitletDir, Map<String, String> updates) {
+        for (Map.Entry<String, String> update : updates.entrySet()) {
+            File file = join(gitletDir, update.getKey());
+            if (update.getValue().equals(NO_VALUE)) {
+                file.delete();
+                continue;
+            }
+            File parent = file.getParentFile();
+            if (!parent.isDirectory()) {
+                parent.mkdirs();
+            }
+            File lock = new File(file.getPath() + ".lock");
+            writeContents(lock, update.getValue());
+            try {
+                Files.move(lock.toPath(), file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+}
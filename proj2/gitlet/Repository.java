@@ -3,6 +3,10 @@ package gitlet;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 import static gitlet.Utils.*;
@@ -23,17 +27,24 @@ public class Repository {
     public static final File CWD = new File(System.getProperty("user.dir"));
     /** The .gitlet directory. */
     public static final File GITLET_DIR = join(CWD, ".gitlet");
+    /** The objects' directory. */
+    public static final File OBJECTS_DIR = join(GITLET_DIR, "objects");
     /** The blobs' directory. */
-    public static final File BLOBS_DIR = join(GITLET_DIR, "objects", "blobs");
+    public static final File BLOBS_DIR = join(OBJECTS_DIR, "blobs");
     /** The commits' directory. */
-    public static final File COMMITS_DIR = join(GITLET_DIR, "objects",
-            "commits");
+    public static final File COMMITS_DIR = join(OBJECTS_DIR, "commits");
+    /** The trees' directory. */
+    public static final File TREES_DIR = join(OBJECTS_DIR, "trees");
+    /** The directory of the chunks of chunked blobs. */
+    public static final File CHUNKS_DIR = join(OBJECTS_DIR, "chunks");
     /** The branches' directory. */
     public static final File BRANCHES_DIR = join(GITLET_DIR, "heads");
     /** The current branch. */
     public static final File CURRENT_BRANCH = join(GITLET_DIR, "current");
     /** The staging file. */
     public static final File STAGING_FILE = join(GITLET_DIR, "staging");
+    /** The stat cache of working files. */
+    public static final File INDEX_FILE = join(GITLET_DIR, "index");
     /** The head file. */
     public static final File HEAD_FILE = join(GITLET_DIR, "HEAD");
     /** The remote directory. */
@@ -42,6 +53,8 @@ public class Repository {
     public static final File REMOTE_INFO_FILE = join(GITLET_DIR, "remote");
     /** Default branch. */
     public static final String DEFAULT_BRANCH = "master";
+    /** Largest number of threads used to write working files. */
+    private static final int MAX_WORKER_THREADS = 8;
 
 
     public void init() throws IOException {
@@ -54,6 +67,8 @@ public class Repository {
         GITLET_DIR.mkdir();
         BLOBS_DIR.mkdirs();
         COMMITS_DIR.mkdirs();
+        TREES_DIR.mkdirs();
+        CHUNKS_DIR.mkdirs();
         BRANCHES_DIR.mkdirs();
         CURRENT_BRANCH.createNewFile();
         STAGING_FILE.createNewFile();
@@ -61,12 +76,13 @@ public class Repository {
         REMOTE_INFO_FILE.createNewFile();
 
         /* Create the initial commit */
-        Commit initialCommit = new Commit("initial commit", null, null);
+        Commit initialCommit = new Commit("initial commit", null,
+                Tree.build(TREES_DIR, new HashMap<>()));
         submitCommit(initialCommit, DEFAULT_BRANCH);
 
         /* Create a staging file */
         Stage stage = new Stage();
-        writeObject(STAGING_FILE, stage);
+        stage.save(STAGING_FILE);
 
         /* Create a remote object */
         HashMap<String, String> remotes = new HashMap<>();
@@ -79,41 +95,38 @@ public class Repository {
 
         File file = join(CWD, fileName);
         if (!file.exists()) {
-            System.out.println("File does not exist.");
-            System.exit(0);
+            throw error("File does not exist.");
         }
 
         /* Read the staging area */
         Stage stage = Stage.fromFile(STAGING_FILE);
-        String hash = sha1(readContents(file));
+
+        /* Hash and store the file in one pass unless it is unchanged */
+        FileIndex index = FileIndex.fromFile(INDEX_FILE);
+        long[] stat = FileIndex.stat(file);
+        ObjectId hash = index.cachedHash(fileName, stat);
+        if (hash == null
+                || !ObjectStore.exists(join(BLOBS_DIR, hash.toHex()))) {
+            hash = ObjectId.fromHex(ObjectStore.storeBlob(file, OBJECTS_DIR));
+            index.record(fileName, stat, hash);
+        }
 
         /* Search files in current commit */
         Commit currentCommit = Commit.fromFile(join(COMMITS_DIR,
-                readContentsAsString(HEAD_FILE)));
+                readRef("HEAD")));
         if (currentCommit.containsSameFile(fileName, hash)) {
             if (stage.containsStagedFile(fileName)) {
-                String oldHash = stage.getHash(fileName);
+                /* The staged blob is left for gc, as other commits may
+                 * refer to it */
                 stage.removeStagedFile(fileName);
-
-                /* Remove the previous version of the file from the blobs directory */
-                File blobFile = join(BLOBS_DIR, oldHash);
-                if (!blobFile.exists()) {
-                    System.out.println("File in previous version does not "
-                            + "exist.");
-                    System.exit(0);
-                }
-                blobFile.delete();
             } else if (stage.containsRemovedFile(fileName)) {
                 stage.resetRemovedFile(fileName);
             }
         } else {
-            stage.add(fileName);
-
-            /* Add the file to the blobs directory */
-            File blobFile = join(BLOBS_DIR, hash);
-            writeContents(blobFile, readContents(file));
+            stage.add(fileName, hash);
         }
-        writeObject(STAGING_FILE, stage);
+        stage.save(STAGING_FILE);
+        index.save(INDEX_FILE);
     }
 
     public void commit(String message) throws IOException {
@@ -123,25 +136,27 @@ public class Repository {
         Stage stage = Stage.fromFile(STAGING_FILE);
         if (stage.getStagedFiles().isEmpty()
                 && stage.getRemovedFiles().isEmpty()) {
-            System.out.println("No changes added to the commit.");
-            System.exit(0);
+            throw error("No changes added to the commit.");
         }
 
         /* Create the commit */
-        String currentHash = readContentsAsString(HEAD_FILE);
+        String currentHash = readRef("HEAD");
         Commit currentCommit = Commit.fromFile(join(COMMITS_DIR, currentHash));
-        Commit newCommit = new Commit(message, currentHash,
-                currentCommit.getBlobs());
-        newCommit.changeBlobs(stage.getStagedFiles());
-        newCommit.removeBlobs(stage.getRemovedFiles());
+        ObjectId tree = Tree.update(TREES_DIR, currentCommit.getTree(),
+                stage.getStagedFiles(), stage.getRemovedFiles());
+        Commit newCommit = new Commit(message, ObjectId.fromHex(currentHash),
+                tree);
 
-        /* Submit the commit */
-        String currentBranch = readContentsAsString(CURRENT_BRANCH);
+        /* Submit the commit, once the blobs that add wrote are on disk */
+        for (ObjectId blob : stage.getStagedFiles().values()) {
+            ObjectStore.willReference(join(BLOBS_DIR, blob.toHex()));
+        }
+        String currentBranch = readRef("current");
         submitCommit(newCommit, currentBranch);
 
         /* Clear the staging area */
         stage.clear();
-        writeObject(STAGING_FILE, stage);
+        stage.save(STAGING_FILE);
     }
 
     public void rm(String fileName) {
@@ -150,11 +165,10 @@ public class Repository {
 
         Stage stage = Stage.fromFile(STAGING_FILE);
         Commit currentCommit = Commit.fromFile(join(COMMITS_DIR,
-                readContentsAsString(HEAD_FILE)));
+                readRef("HEAD")));
         if (!stage.containsStagedFile(fileName)
                 && !currentCommit.containsFile(fileName)) {
-            System.out.println("No reason to remove the file.");
-            System.exit(0);
+            throw error("No reason to remove the file.");
         }
 
         if (stage.containsStagedFile(fileName)) {
@@ -165,54 +179,69 @@ public class Repository {
             stage.addRemovedFile(fileName);
             File file = join(CWD, fileName);
             file.delete();
+            deleteEmptyParents(file);
         }
 
-        writeObject(STAGING_FILE, stage);
+        stage.save(STAGING_FILE);
+        FileIndex index = FileIndex.fromFile(INDEX_FILE);
+        index.forget(fileName);
+        index.save(INDEX_FILE);
     }
 
     public void log() {
         /* Error checking */
         checkGitletDir();
 
-        /* Print the log */
-        String hash = readContentsAsString(HEAD_FILE);
+        /* Print the log, looking up each commit by id */
+        CommitLog commitLog = new CommitLog(GITLET_DIR);
+        String hash = readRef("HEAD");
+        while (hash != null) {
+            CommitLog.Entry entry = commitLog.get(hash);
+            printLogEntry(entry);
+            hash = entry.firstParent;
+        }
+    }
+
+    public void log(String path) {
+        /* Error checking */
+        checkGitletDir();
+
+        /* Print the commits on the first-parent chain that changed PATH,
+         * reading only those whose changed-path filter may hold it */
+        CommitLog commitLog = new CommitLog(GITLET_DIR);
+        long pathHash = BloomFilter.hash(path);
+        String hash = readRef("HEAD");
         while (hash != null) {
-            Commit commit = Commit.fromFile(join(COMMITS_DIR, hash));
-            System.out.println("===");
-            System.out.println("commit " + hash);
-            if (commit.getSecondParent() != null) {
-                System.out.println("Merge: " + commit.getFirstParent().substring(0,
-                        7) + " " + commit.getSecondParent().substring(0, 7));
+            CommitLog.Entry entry = commitLog.get(hash);
+            if (!entry.mayChange(pathHash)) {
+                Metrics.count("log.skipped", 1);
+            } else if (changesPath(entry, path)) {
+                printLogEntry(entry);
+            } else {
+                Metrics.count("log.false-positives", 1);
             }
-            System.out.println("Date: " + commit.getTime());
-            System.out.println(commit.getMessage());
-            System.out.println();
-            hash = commit.getFirstParent();
+            hash = entry.firstParent;
         }
     }
 
+    /** Return true iff the commit of ENTRY changed the file PATH relative
+     *  to its first parent. */
+    private static boolean changesPath(CommitLog.Entry entry, String path) {
+        Metrics.count("log.loaded", 1);
+        ObjectId blob = Commit.fromFile(join(COMMITS_DIR, entry.id))
+                .getBlobHash(path);
+        ObjectId parentBlob = entry.firstParent == null ? null
+                : Commit.fromFile(join(COMMITS_DIR, entry.firstParent))
+                .getBlobHash(path);
+        return !Objects.equals(blob, parentBlob);
+    }
+
     public void globalLog() {
         /* Error checking */
         checkGitletDir();
 
         /* Print the global log */
-        List<String> files = plainFilenamesIn(COMMITS_DIR);
-        if (files == null) {
-            return;
-        }
-        for (String file : files) {
-            File commitFile = join(COMMITS_DIR, file);
-            Commit commit = Commit.fromFile(commitFile);
-            System.out.println("===");
-            System.out.println("commit " + commitFile.getName());
-            if (commit.getSecondParent() != null) {
-                System.out.println("Merge: " + commit.getFirstParent().substring(0,
-                        7) + " " + commit.getSecondParent().substring(0, 7));
-            }
-            System.out.println("Date: " + commit.getTime());
-            System.out.println(commit.getMessage());
-            System.out.println();
-        }
+        new CommitLog(GITLET_DIR).forEach(Repository::printLogEntry);
     }
 
     public void find(String message) {
@@ -220,21 +249,12 @@ public class Repository {
         checkGitletDir();
 
         /* Search for the commit */
-        List<String> files = plainFilenamesIn(COMMITS_DIR);
-        if (files == null) {
-            return;
-        }
-        boolean found = false;
-        for (String file : files) {
-            File commitFile = join(COMMITS_DIR, file);
-            Commit commit = Commit.fromFile(commitFile);
-            if (Objects.equals(commit.getMessage(), message)) {
-                System.out.println(commitFile.getName());
-                found = true;
-            }
+        List<String> found = new CommitLog(GITLET_DIR).find(message);
+        for (String hash : found) {
+            System.out.println(hash);
         }
 
-        if (!found) {
+        if (found.isEmpty()) {
             System.out.println("Found no commit with that message.");
         }
     }
@@ -245,28 +265,32 @@ public class Repository {
         printBranches();
 
         Stage stage = Stage.fromFile(STAGING_FILE);
+        FileIndex index = FileIndex.fromFile(INDEX_FILE);
+        SparseCheckout sparse = SparseCheckout.fromDir(GITLET_DIR);
         Commit commit = Commit.fromFile(join(COMMITS_DIR,
-                readContentsAsString(HEAD_FILE)));
-        List<String> workingDirectoryFiles = plainFilenamesIn(CWD);
-        if (workingDirectoryFiles == null) {
-            System.exit(0);
-        }
+                readRef("HEAD")));
+        List<String> workingDirectoryFiles = WorkingTree.list(CWD);
 
         TreeSet<String> stagedFiles = new TreeSet<>();
         TreeSet<String>  removedFiles = new TreeSet<>();
         TreeMap<String, Integer> modifiedFiles = new TreeMap<>();
 
-        HashMap<String, String> addedStagedFiles = stage.getStagedFiles();
+        HashMap<String, ObjectId> addedStagedFiles = stage.getStagedFiles();
         HashSet<String> removedStagedFiles = stage.getRemovedFiles();
-        HashMap<String, String> commitFiles = commit.getBlobs();
+        HashMap<String, ObjectId> commitFiles = commit.getBlobs();
 
-        for (Map.Entry<String, String> entry : addedStagedFiles.entrySet()) {
+        /* Hash the tracked and staged working files in parallel */
+        HashSet<String> candidates = new HashSet<>(commitFiles.keySet());
+        candidates.addAll(addedStagedFiles.keySet());
+        HashMap<String, ObjectId> localHashes = index.hashAll(candidates, CWD);
+
+        for (Map.Entry<String, ObjectId> entry : addedStagedFiles.entrySet()) {
             String fileName = entry.getKey();
             File file = join(CWD, fileName);
             if (!file.exists()) {
                 modifiedFiles.put(fileName, 0);
             } else {
-                String localHash = sha1(readContents(file));
+                ObjectId localHash = localHashes.get(fileName);
                 if (entry.getValue().equals(localHash)) {
                     stagedFiles.add(fileName);
                 } else {
@@ -275,15 +299,16 @@ public class Repository {
             }
         }
 
-        for (Map.Entry<String, String> entry : commitFiles.entrySet()) {
+        for (Map.Entry<String, ObjectId> entry : commitFiles.entrySet()) {
             String fileName = entry.getKey();
             File file = join(CWD, fileName);
             if (!file.exists()) {
-                if (!removedStagedFiles.contains(fileName)) {
+                if (!removedStagedFiles.contains(fileName)
+                        && sparse.includes(fileName)) {
                     modifiedFiles.put(fileName, 0);
                 }
             } else {
-                String localHash = sha1(readContents(file));
+                ObjectId localHash = localHashes.get(fileName);
                 if (!entry.getValue().equals(localHash)
                         && !addedStagedFiles.containsKey(fileName)
                         && !removedStagedFiles.contains(fileName)) {
@@ -299,6 +324,7 @@ public class Repository {
             }
         }
 
+        index.save(INDEX_FILE);
         printStatus(stagedFiles, removedFiles, modifiedFiles);
 
         System.out.println("=== Untracked Files ===");
@@ -324,19 +350,21 @@ public class Repository {
 
         /* Search for the file */
         if (!commit.containsFile(fileName)) {
-            System.out.println("File does not exist in that commit.");
-            System.exit(0);
+            throw error("File does not exist in that commit.");
         }
 
         /* Checkout the file */
-        String blobHash = commit.getBlobHash(fileName);
-        File blobFile = join(BLOBS_DIR, blobHash);
+        ObjectId blobHash = commit.getBlobHash(fileName);
         File file = join(CWD, fileName);
-        writeContents(file, readContents(blobFile));
+        writeWorkingFiles(Collections.singletonMap(fileName, blobHash));
+
+        FileIndex index = FileIndex.fromFile(INDEX_FILE);
+        index.record(fileName, file, blobHash);
+        index.save(INDEX_FILE);
     }
 
     public void checkoutFileFromCurrentCommit(String fileName) {
-        checkoutFileFromCommit(readContentsAsString(HEAD_FILE), fileName);
+        checkoutFileFromCommit(readRef("HEAD"), fileName);
     }
 
     public void checkoutBranch(String branch) throws IOException {
@@ -346,24 +374,22 @@ public class Repository {
         /* Search for the branch */
         File branchFile = join(BRANCHES_DIR, branch);
         if (!branchFile.exists()) {
-            System.out.println("No such branch exists.");
-            System.exit(0);
+            throw error("No such branch exists.");
         }
 
         /* Check if the branch is the current branch */
-        String currentBranch = readContentsAsString(CURRENT_BRANCH);
+        String currentBranch = readRef("current");
         if (branch.equals(currentBranch)) {
-            System.out.println("No need to checkout the current branch.");
-            System.exit(0);
+            throw error("No need to checkout the current branch.");
         }
 
         /* Checkout target commit */
-        String targetHash = readContentsAsString(branchFile);
+        String targetHash = readRef("heads/" + branch);
         checkoutCommit(targetHash);
 
         /* Update the current branch */
-        writeContents(CURRENT_BRANCH, branch);
-        writeContents(HEAD_FILE, targetHash);
+        new RefTransaction(GITLET_DIR).update("current", branch)
+                .update("HEAD", targetHash).commit();
     }
 
     public void branch(String branchName) {
@@ -373,12 +399,12 @@ public class Repository {
         /* Search for the branch */
         File branchFile = join(BRANCHES_DIR, branchName);
         if (branchFile.exists()) {
-            System.out.println("A branch with that name already exists.");
-            System.exit(0);
+            throw error("A branch with that name already exists.");
         }
 
         /* Create the branch */
-        writeContents(branchFile, readContentsAsString(HEAD_FILE));
+        new RefTransaction(GITLET_DIR).update("heads/" + branchName,
+                readRef("HEAD")).commit();
     }
 
     public void rmBranch(String branchName) {
@@ -388,19 +414,17 @@ public class Repository {
         /* Search for the branch */
         File branchFile = join(BRANCHES_DIR, branchName);
         if (!branchFile.exists()) {
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+            throw error("A branch with that name does not exist.");
         }
 
         /* Check if the branch is the current branch */
-        String currentBranch = readContentsAsString(CURRENT_BRANCH);
+        String currentBranch = readRef("current");
         if (branchName.equals(currentBranch)) {
-            System.out.println("Cannot remove the current branch.");
-            System.exit(0);
+            throw error("Cannot remove the current branch.");
         }
 
         /* Remove the branch */
-        branchFile.delete();
+        new RefTransaction(GITLET_DIR).delete("heads/" + branchName).commit();
     }
 
     public void reset(String hash) {
@@ -413,12 +437,10 @@ public class Repository {
         /* Checkout the files */
         checkoutCommit(fullHash);
 
-        /* Update the current branch */
-        String currentBranch = readContentsAsString(CURRENT_BRANCH);
-        writeContents(join(BRANCHES_DIR, currentBranch), fullHash);
-
-        /* Update the head file */
-        writeContents(HEAD_FILE, fullHash);
+        /* Update the current branch and the head file */
+        String currentBranch = readRef("current");
+        new RefTransaction(GITLET_DIR).update("heads/" + currentBranch,
+                fullHash).update("HEAD", fullHash).commit();
     }
 
     public void merge(String branchName) throws IOException {
@@ -431,66 +453,73 @@ public class Repository {
         /* Search for the branch */
         File branchFile = join(BRANCHES_DIR, branchName);
         if (!branchFile.exists()) {
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+            throw error("A branch with that name does not exist.");
         }
 
         /* Check if the branch is the current branch */
-        String currentBranch = readContentsAsString(CURRENT_BRANCH);
+        String currentBranch = readRef("current");
         if (branchName.equals(currentBranch)) {
-            System.out.println("Cannot merge a branch with itself.");
-            System.exit(0);
+            throw error("Cannot merge a branch with itself.");
         }
 
         /* Get the split point */
-        String currentCommitHash = readContentsAsString(HEAD_FILE);
+        String currentCommitHash = readRef("HEAD");
         String givenCommitHash = readContentsAsString(branchFile);
         String splitCommitHash = findSplitPoint(currentCommitHash,
                 givenCommitHash);
 
         /* Check if the split point is the same as the given branch */
         if (splitCommitHash.equals(givenCommitHash)) {
-            System.out.println("Given branch is an ancestor of "
+            throw error("Given branch is an ancestor of "
                     + "the current branch.");
-            System.exit(0);
         }
 
         /* Check if the split point is the same as the current branch */
         if (splitCommitHash.equals(currentCommitHash)) {
             checkoutBranch(branchName);
             System.out.println("Current branch fast-forwarded.");
-            System.exit(0);
+            return;
         }
 
         Commit currentCommit = Commit.fromFile(join(COMMITS_DIR, currentCommitHash));
         Commit givenCommit = Commit.fromFile(join(COMMITS_DIR, givenCommitHash));
         Commit splitCommit = Commit.fromFile(join(COMMITS_DIR, splitCommitHash));
 
-        HashMap<String, String> currentBlobs = currentCommit.getBlobs();
-        HashMap<String, String> givenBlobs = givenCommit.getBlobs();
-        HashMap<String, String> splitBlobs = splitCommit.getBlobs();
+        HashMap<String, ObjectId> currentBlobs = currentCommit.getBlobs();
+        HashMap<String, ObjectId> givenBlobs = givenCommit.getBlobs();
+        HashMap<String, ObjectId> splitBlobs = splitCommit.getBlobs();
 
-        List<String> workingDirectoryFiles = plainFilenamesIn(CWD);
-        if (workingDirectoryFiles == null) {
-            System.exit(0);
-        }
+        HashSet<String> workingDirectoryFiles =
+                new HashSet<>(WorkingTree.list(CWD));
 
         HashSet<String> lockedFiles = new HashSet<>();
-        HashMap<String, String> newBlobs = new HashMap<>(currentBlobs);
+        HashMap<String, ObjectId> newBlobs = new HashMap<>(currentBlobs);
+        SparseCheckout sparse = SparseCheckout.fromDir(GITLET_DIR);
 
         boolean conflict = false;
 
         conflict = checkGivenBranch(givenBlobs,
                 lockedFiles, splitBlobs, currentBlobs,
-                givenCommitHash, newBlobs, conflict, workingDirectoryFiles);
+                newBlobs, conflict, workingDirectoryFiles, sparse);
 
         conflict = checkCurrentBranch(currentBlobs, lockedFiles, splitBlobs,
-                givenBlobs, newBlobs, conflict);
+                givenBlobs, newBlobs, conflict, sparse);
 
-        /* Create the merge commit */
+        /* Create the merge commit from the paths that changed */
+        HashMap<String, ObjectId> changedBlobs = new HashMap<>();
+        for (Map.Entry<String, ObjectId> entry : newBlobs.entrySet()) {
+            if (!entry.getValue().equals(currentBlobs.get(entry.getKey()))) {
+                changedBlobs.put(entry.getKey(), entry.getValue());
+            }
+        }
+        HashSet<String> removedBlobs = new HashSet<>(currentBlobs.keySet());
+        removedBlobs.removeAll(newBlobs.keySet());
+        ObjectId tree = Tree.update(TREES_DIR, currentCommit.getTree(),
+                changedBlobs, removedBlobs);
         Commit commit = new Commit("Merged " + branchName + " into "
-                + currentBranch + ".", currentCommitHash, newBlobs);
-        commit.setSecondParent(givenCommitHash);
+                + currentBranch + ".", ObjectId.fromHex(currentCommitHash),
+                tree);
+        commit.setSecondParent(ObjectId.fromHex(givenCommitHash));
         submitCommit(commit, currentBranch);
 
         /* Print whether there is a conflict */
@@ -508,8 +537,7 @@ public class Repository {
         HashMap<String, String> remotes =
                 readObject(REMOTE_INFO_FILE, HashMap.class);
         if (remotes.containsKey(remoteName)) {
-            System.out.println("A remote with that name already exists.");
-            System.exit(0);
+            throw error("A remote with that name already exists.");
         }
 
         /* Convert the path */
@@ -531,8 +559,7 @@ public class Repository {
         HashMap<String, String> remotes =
                 readObject(REMOTE_INFO_FILE, HashMap.class);
         if (!remotes.containsKey(remoteName)) {
-            System.out.println("A remote with that name does not exist.");
-            System.exit(0);
+            throw error("A remote with that name does not exist.");
         }
 
         /* Remove the remote branches */
@@ -540,10 +567,11 @@ public class Repository {
         if (remoteBranchFile.exists()) {
             List<String> branches = plainFilenamesIn(remoteBranchFile);
             if (branches != null) {
+                RefTransaction transaction = new RefTransaction(GITLET_DIR);
                 for (String branch : branches) {
-                    File branchFile = join(remoteBranchFile, branch);
-                    branchFile.delete();
+                    transaction.delete("heads/" + remoteName + "/" + branch);
                 }
+                transaction.commit();
             }
             remoteBranchFile.delete();
         }
@@ -562,65 +590,39 @@ public class Repository {
         HashMap<String, String> remotes =
                 readObject(REMOTE_INFO_FILE, HashMap.class);
         if (!remotes.containsKey(remoteName)) {
-            System.out.println("Remote directory not found.");
-            System.exit(0);
+            throw error("Remote directory not found.");
         }
 
         /* Get the remote directory */
         File remoteDir = new File(remotes.get(remoteName));
         if (!remoteDir.exists()) {
-            System.out.println("Remote directory not found.");
-            System.exit(0);
+            throw error("Remote directory not found.");
         }
 
-        /* Get the remote branch */
+        /* Get the remote branch, which starts at the initial commit */
+        RefTransaction.recover(remoteDir);
         File remoteBranchFile = join(remoteDir, "heads", remoteBranch);
-        if (!remoteBranchFile.exists()) {
-            remoteBranchFile.createNewFile();
-            String remoteInitHash = findRemoteInitHash(remoteDir);
-            writeContents(remoteBranchFile, remoteInitHash);
-        }
+        String remoteCommitHash = remoteBranchFile.exists()
+                ? readContentsAsString(remoteBranchFile)
+                : findRemoteInitHash(remoteDir);
 
         /*
          * Check if the remote branch’s head is in the
          * history of the current local head
          */
-        String localBranch = readContentsAsString(CURRENT_BRANCH);
+        String localBranch = readRef("current");
         File localBranchFile = join(BRANCHES_DIR, localBranch);
         String localCommitHash = readContentsAsString(localBranchFile);
-        String remoteCommitHash = readContentsAsString(remoteBranchFile);
         if (!isAncestor(localCommitHash, remoteCommitHash)) {
-            System.out.println("Please pull down remote changes before pushing.");
-            System.exit(0);
-        }
-
-        /* Append the future commits to the remote branch */
-        File remoteCommitDir = join(remoteDir, "objects", "commits");
-        File remoteBlobDir = join(remoteDir, "objects", "blobs");
-        while (!localCommitHash.equals(remoteCommitHash)) {
-            Commit localCommit = Commit.fromFile(join(COMMITS_DIR, localCommitHash));
-            File remoteCommitFile = join(remoteCommitDir, localCommitHash);
-            remoteCommitFile.createNewFile();
-            writeObject(remoteCommitFile, localCommit);
-
-            for (Map.Entry<String, String> entry
-                    : localCommit.getBlobs().entrySet()) {
-                String blobHash = entry.getValue();
-                File localBlobFile = join(BLOBS_DIR, blobHash);
-                File remoteBlobFile = join(remoteBlobDir, blobHash);
-                if (!remoteBlobFile.exists()) {
-                    remoteBlobFile.createNewFile();
-                    writeContents(remoteBlobFile, readContents(localBlobFile));
-                }
-            }
-
-            localCommitHash = localCommit.getFirstParent();
+            throw error("Please pull down remote changes before pushing.");
         }
 
+        /* Send the commits the remote is missing */
+        Transfer.send(GITLET_DIR, remoteDir, localCommitHash);
+
         /* Reset remote to the front of the append commits */
-        writeContents(remoteBranchFile, readContentsAsString(localBranchFile));
-        writeContents(join(remoteDir, "HEAD"),
-                readContentsAsString(remoteBranchFile));
+        new RefTransaction(remoteDir).update("heads/" + remoteBranch,
+                localCommitHash).update("HEAD", localCommitHash).commit();
     }
 
     public void fetch(String remoteName, String remoteBranch) throws IOException {
@@ -632,65 +634,227 @@ public class Repository {
         HashMap<String, String> remotes =
                 readObject(REMOTE_INFO_FILE, HashMap.class);
         if (!remotes.containsKey(remoteName)) {
-            System.out.println("Remote directory not found.");
-            System.exit(0);
+            throw error("Remote directory not found.");
         }
 
         /* Get the remote directory */
         File remoteDir = new File(remotes.get(remoteName));
         if (!remoteDir.exists()) {
-            System.out.println("Remote directory not found.");
-            System.exit(0);
+            throw error("Remote directory not found.");
         }
 
         /* Get the remote branch */
+        RefTransaction.recover(remoteDir);
         File remoteBranchFile = join(remoteDir, "heads", remoteBranch);
         if (!remoteBranchFile.exists()) {
-            System.out.println("That remote does not have that branch.");
-            System.exit(0);
-        }
-
-        /* Get the remote commit dir and blob dir */
-        File remoteCommitDir = join(remoteDir, "objects", "commits");
-        File remoteBlobDir = join(remoteDir, "objects", "blobs");
-
-        /* Create local branch */
-        File localDir = join(BRANCHES_DIR, remoteName);
-        if (!localDir.exists()) {
-            localDir.mkdirs();
-        }
-        File localBranchFile = join(localDir, remoteBranch);
-        if (!localBranchFile.exists()) {
-            localBranchFile.createNewFile();
-        }
-        writeContents(localBranchFile, readContents(remoteBranchFile));
-
-        /* Copy commits and blobs to local repository */
-        String remoteCommitHash = readContentsAsString(remoteBranchFile);
-        while (remoteCommitHash != null) {
-            File remoteCommitFile = join(remoteCommitDir, remoteCommitHash);
-            Commit remoteCommit = Commit.fromFile(remoteCommitFile);
-            File localCommitFile = join(COMMITS_DIR, remoteCommitHash);
-            if (!localCommitFile.exists()) {
-                localCommitFile.createNewFile();
-                writeObject(localCommitFile, remoteCommit);
-
-                for (Map.Entry<String, String> entry
-                        : remoteCommit.getBlobs().entrySet()) {
-                    String blobHash = entry.getValue();
-                    File remoteBlobFile = join(remoteBlobDir, blobHash);
-                    File localBlobFile = join(BLOBS_DIR, blobHash);
-                    if (!localBlobFile.exists()) {
-                        localBlobFile.createNewFile();
-                        writeContents(localBlobFile, readContents(remoteBlobFile));
-                    }
+            throw error("That remote does not have that branch.");
+        }
+
+        /* Copy the commits missing from the local repository */
+        String remoteHeadHash = readContentsAsString(remoteBranchFile);
+        Transfer.send(remoteDir, GITLET_DIR, remoteHeadHash);
+
+        /* Create or move the local tracking branch */
+        new RefTransaction(GITLET_DIR).update("heads/" + remoteName + "/"
+                + remoteBranch, remoteHeadHash).commit();
+    }
+
+    public void diff(String... commitIds) {
+        /* Error checking */
+        checkGitletDir();
+
+        /* Read the old version, the head commit by default */
+        String oldHash = commitIds.length == 0
+                ? readRef("HEAD")
+                : findFullCommitHash(commitIds[0]);
+        HashMap<String, ObjectId> oldBlobs =
+                Commit.fromFile(join(COMMITS_DIR, oldHash)).getBlobs();
+        TreeSet<String> paths = new TreeSet<>(oldBlobs.keySet());
+
+        /* Compare with a second commit */
+        if (commitIds.length == 2) {
+            String newHash = findFullCommitHash(commitIds[1]);
+            HashMap<String, ObjectId> newBlobs =
+                    Commit.fromFile(join(COMMITS_DIR, newHash)).getBlobs();
+            paths.addAll(newBlobs.keySet());
+            for (String fileName : paths) {
+                ObjectId oldBlob = oldBlobs.get(fileName);
+                ObjectId newBlob = newBlobs.get(fileName);
+                if (Objects.equals(oldBlob, newBlob)) {
+                    continue;
+                }
+                if (blobSize(oldBlob) > Diff.MAX_SIZE
+                        || blobSize(newBlob) > Diff.MAX_SIZE) {
+                    Diff.tooLarge(fileName, oldBlob != null, newBlob != null,
+                            System.out);
+                } else {
+                    Diff.unified(fileName, toLines(readBlob(oldBlob)),
+                            toLines(readBlob(newBlob)), System.out);
+                }
+            }
+            return;
+        }
+
+        /* Compare with the working files that are tracked or staged */
+        paths.addAll(Stage.fromFile(STAGING_FILE).getStagedFiles().keySet());
+        FileIndex index = FileIndex.fromFile(INDEX_FILE);
+        SparseCheckout sparse = SparseCheckout.fromDir(GITLET_DIR);
+        for (String fileName : paths) {
+            File file = join(CWD, fileName);
+            if (!file.exists() && !sparse.includes(fileName)) {
+                continue;
+            }
+            ObjectId oldBlob = oldBlobs.get(fileName);
+            ObjectId newBlob = file.isFile()
+                    ? index.hash(fileName, file) : null;
+            if (Objects.equals(oldBlob, newBlob)) {
+                continue;
+            }
+            if (blobSize(oldBlob) > Diff.MAX_SIZE
+                    || (newBlob != null && file.length() > Diff.MAX_SIZE)) {
+                Diff.tooLarge(fileName, oldBlob != null, newBlob != null,
+                        System.out);
+            } else {
+                Diff.unified(fileName, toLines(readBlob(oldBlob)),
+                        toLines(newBlob == null ? null : readContents(file)),
+                        System.out);
+            }
+        }
+        index.save(INDEX_FILE);
+    }
+
+    public void gc() {
+        /* Error checking */
+        checkGitletDir();
+
+        /* Keep everything reachable from a branch, HEAD or the stage */
+        Stage stage = Stage.fromFile(STAGING_FILE);
+        long[] result = new GarbageCollector(GITLET_DIR).collect(
+                Transfer.refs(GITLET_DIR), stage.getStagedFiles().values());
+        System.out.println("Removed " + result[0] + " objects, reclaimed "
+                + result[1] + " bytes.");
+    }
+
+    public void stats() {
+        /* Error checking */
+        checkGitletDir();
+
+        /* Read the chunk list of every chunked blob */
+        List<String> blobIds = ObjectStore.list(BLOBS_DIR);
+        int chunked = 0;
+        long references = 0;
+        long logical = 0;
+        HashMap<String, Integer> chunks = new HashMap<>();
+        for (String id : blobIds) {
+            Chunker.Manifest manifest = Chunker.manifestOf(join(BLOBS_DIR, id));
+            if (manifest == null) {
+                continue;
+            }
+            chunked += 1;
+            logical += manifest.size;
+            references += manifest.ids.size();
+            for (int i = 0; i < manifest.ids.size(); i += 1) {
+                chunks.put(manifest.ids.get(i), manifest.sizes.get(i));
+            }
+        }
+        long stored = 0;
+        for (int size : chunks.values()) {
+            stored += size;
+        }
+
+        /* Report deduplication and chunking throughput */
+        long[] throughput = Chunker.readStats(GITLET_DIR);
+        System.out.println("Blobs: " + blobIds.size() + " (" + chunked
+                + " chunked)");
+        System.out.println("Chunks: " + chunks.size() + " unique, "
+                + references + " referenced");
+        System.out.println("Chunked bytes: " + logical + " logical, "
+                + stored + " stored");
+        System.out.println(String.format("Dedup ratio: %.2f",
+                stored == 0 ? 1.0 : (double) logical / stored));
+        System.out.println(String.format("Chunking throughput: %.1f MB/s",
+                throughput[1] == 0 ? 0.0
+                        : throughput[0] * 1e3 / throughput[1]));
+    }
+
+    public void sparseCheckout(List<String> patterns) {
+        /* Error checking */
+        checkGitletDir();
+
+        /* Refuse to hide a file with changes that are not committed */
+        SparseCheckout sparse = SparseCheckout.of(patterns);
+        Stage stage = Stage.fromFile(STAGING_FILE);
+        FileIndex index = FileIndex.fromFile(INDEX_FILE);
+        Map<String, ObjectId> headBlobs = Commit.fromFile(join(COMMITS_DIR,
+                readRef("HEAD"))).getBlobs();
+        for (String fileName : headBlobs.keySet()) {
+            File file = join(CWD, fileName);
+            if (!sparse.includes(fileName) && (file.isFile()
+                    && !headBlobs.get(fileName).equals(
+                            index.hash(fileName, file))
+                    || stage.getStagedFiles().containsKey(fileName)
+                    || stage.getRemovedFiles().contains(fileName))) {
+                throw error("There is a changed file outside the sparse "
+                        + "checkout; commit or restore it first.");
+            }
+        }
+
+        /* Remove the files that leave the working directory and write the
+         * ones that enter it */
+        sparse.save(GITLET_DIR);
+        TreeMap<String, ObjectId> missingFiles = new TreeMap<>();
+        for (Map.Entry<String, ObjectId> entry : headBlobs.entrySet()) {
+            String fileName = entry.getKey();
+            File file = join(CWD, fileName);
+            if (!sparse.includes(fileName)) {
+                if (file.exists()) {
+                    file.delete();
+                    deleteEmptyParents(file);
                 }
+                index.forget(fileName);
+            } else if (!file.exists()) {
+                missingFiles.put(fileName, entry.getValue());
             }
+        }
+        writeWorkingFiles(missingFiles);
+        for (Map.Entry<String, ObjectId> entry : missingFiles.entrySet()) {
+            index.record(entry.getKey(), join(CWD, entry.getKey()),
+                    entry.getValue());
+        }
+        index.save(INDEX_FILE);
+    }
+
+    public void sparseCheckoutList() {
+        /* Error checking */
+        checkGitletDir();
 
-            remoteCommitHash = remoteCommit.getFirstParent();
+        for (String pattern
+                : SparseCheckout.fromDir(GITLET_DIR).getPatterns()) {
+            System.out.println(pattern);
         }
     }
 
+    public void repack() {
+        /* Error checking */
+        checkGitletDir();
+
+        /* Fold loose objects into a pack */
+        ObjectStore.repack(OBJECTS_DIR);
+    }
+
+    public void batch() throws IOException {
+        /* Run the commands on standard input, which may start with init */
+        Batch.run(System.in);
+    }
+
+    public void daemon() throws IOException {
+        /* Error checking */
+        checkGitletDir();
+
+        /* Serve commands until stopped */
+        Daemon.serve(GITLET_DIR);
+    }
+
     public void pull(String remoteName, String remoteBranch) throws IOException {
         /* Error checking */
         checkGitletDir();
@@ -704,34 +868,121 @@ public class Repository {
 
     private static void checkGitletDir() {
         if (!GITLET_DIR.exists()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
+            throw error("Not in an initialized Gitlet directory.");
         }
+        RefTransaction.recover(GITLET_DIR);
+    }
+
+    /** Return the value of the ref REF, such as "HEAD", including the
+     *  updates a batch has not flushed yet. */
+    private static String readRef(String ref) {
+        return RefTransaction.read(GITLET_DIR, ref);
     }
 
     private static void submitCommit(Commit commit, String branch)
             throws IOException {
-        String hash = sha1(serialize(commit));
+        byte[] contents = commit.toBytes();
+        String hash = sha1(contents);
         File commitFile = join(COMMITS_DIR, hash);
         commitFile.createNewFile();
-        writeObject(commitFile, commit);
+        writeContents(commitFile, contents);
+        ObjectStore.written(commitFile);
+        CommitGraph.fromDir(GITLET_DIR).add(ObjectId.fromHex(hash),
+                commit.getFirstParent(), commit.getSecondParent());
+        new CommitLog(GITLET_DIR).append(hash, commit);
+
+        new RefTransaction(GITLET_DIR).update("HEAD", hash)
+                .update("heads/" + branch, hash).update("current", branch)
+                .commit();
+    }
 
-        writeContents(HEAD_FILE, hash);
+    private static void printLogEntry(CommitLog.Entry entry) {
+        System.out.println("===");
+        System.out.println("commit " + entry.id);
+        if (entry.secondParent != null) {
+            System.out.println("Merge: " + entry.firstParent.substring(0,
+                    7) + " " + entry.secondParent.substring(0, 7));
+        }
+        System.out.println("Date: " + Commit.formatTime(entry.time));
+        System.out.println(entry.message);
+        System.out.println();
+    }
 
-        File branchFile = join(BRANCHES_DIR, branch);
-        writeContents(branchFile, hash);
+    /** Write CONTENTS to the working file FILE, creating the directories
+     *  above it if it is in a subdirectory. */
+    private static void writeWorkingFile(File file, Object... contents) {
+        File parent = file.getParentFile();
+        if (!parent.exists()) {
+            parent.mkdirs();
+        }
+        writeContents(file, contents);
+    }
+
+    /** Write the blobs in FILES, a map from working file names to blob
+     *  ids, to the working directory.  Directories are created first, and
+     *  the files are then copied from the object store by a bounded pool
+     *  of worker threads. */
+    private static void writeWorkingFiles(Map<String, ObjectId> files) {
+        for (String fileName : files.keySet()) {
+            File parent = join(CWD, fileName).getParentFile();
+            if (!parent.isDirectory()) {
+                parent.mkdirs();
+            }
+        }
+        if (files.size() < 2) {
+            for (Map.Entry<String, ObjectId> entry : files.entrySet()) {
+                ObjectStore.copyTo(join(BLOBS_DIR, entry.getValue().toHex()),
+                        join(CWD, entry.getKey()));
+            }
+            return;
+        }
 
-        writeContents(CURRENT_BRANCH, branch);
+        int threads = Math.min(files.size(), Math.min(MAX_WORKER_THREADS,
+                Runtime.getRuntime().availableProcessors()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (Map.Entry<String, ObjectId> entry : files.entrySet()) {
+                File blobFile = join(BLOBS_DIR, entry.getValue().toHex());
+                File file = join(CWD, entry.getKey());
+                results.add(pool.submit(() ->
+                        ObjectStore.copyTo(blobFile, file)));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (ExecutionException excp) {
+            throw new IllegalArgumentException(excp.getCause().getMessage());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Remove the directories above the deleted working file FILE that
+     *  have become empty, up to the working directory. */
+    private static void deleteEmptyParents(File file) {
+        File parent = file.getParentFile();
+        while (parent != null && !parent.equals(CWD)) {
+            String[] children = parent.list();
+            if (children == null || children.length > 0) {
+                break;
+            }
+            parent.delete();
+            parent = parent.getParentFile();
+        }
     }
 
     private static void printBranches() {
         System.out.println("=== Branches ===");
         List<String> branches = plainFilenamesIn(BRANCHES_DIR);
         if (branches == null) {
-            System.exit(0);
+            return;
         }
 
-        String currentBranch = readContentsAsString(CURRENT_BRANCH);
+        String currentBranch = readRef("current");
         for (String branch : branches) {
             if (branch.equals(currentBranch)) {
                 System.out.println("*" + branch);
@@ -771,33 +1022,20 @@ public class Repository {
     }
 
     private static String findFullCommitHash(String hash) {
-        List<String> files = plainFilenamesIn(COMMITS_DIR);
-        List<String> matchedFiles = new ArrayList<>();
+        List<String> matches = new CommitLog(GITLET_DIR).resolve(hash);
 
-        if (files == null) {
-            return null;
+        if (matches.isEmpty()) {
+            throw error("No commit with that id exists.");
+        } else if (matches.size() > 1) {
+            throw error("Commit id is ambiguous.");
         }
 
-        for (String file : files) {
-            if (file.startsWith(hash)) {
-                matchedFiles.add(file);
-            }
-        }
-
-        if (matchedFiles.isEmpty()) {
-            System.out.println("No commit with that id exists.");
-            System.exit(0);
-        } else if (matchedFiles.size() > 1) {
-            System.out.println("Commit id is ambiguous.");
-            System.exit(0);
-        }
-
-        return matchedFiles.get(0);
+        return matches.get(0);
     }
 
     private static void checkoutCommit(String targetHash) {
         /* Read the current commit */
-        String currentHash = readContentsAsString(HEAD_FILE);
+        String currentHash = readRef("HEAD");
         Commit currentCommit = Commit.fromFile(join(COMMITS_DIR, currentHash));
 
         /* Read the target commit */
@@ -806,200 +1044,218 @@ public class Repository {
         /* Read Staging Area */
         Stage stage = Stage.fromFile(STAGING_FILE);
 
-        /* Check if there is an untracked file */
-        List<String> workingDirectoryFiles = plainFilenamesIn(CWD);
-        if (workingDirectoryFiles == null) {
-            return;
-        }
+        /* Check if there is an untracked file where a file will be
+         * written */
+        SparseCheckout sparse = SparseCheckout.fromDir(GITLET_DIR);
+        List<String> workingDirectoryFiles = WorkingTree.list(CWD);
         for (String fileName : workingDirectoryFiles) {
+            if (!sparse.includes(fileName)) {
+                continue;
+            }
             if ((!currentCommit.containsFile(fileName)
                     && !stage.containsStagedFile(fileName))
                     || stage.containsRemovedFile(fileName)) {
-                System.out.println("There is an untracked file in the way; "
+                throw error("There is an untracked file in the way; "
                         + "delete it, or add and commit it first.");
-                System.exit(0);
             }
         }
 
-        /* Delete files under CWD */
+        /* Delete the files that the target commit does not track */
+        FileIndex index = FileIndex.fromFile(INDEX_FILE);
+        Map<String, ObjectId> currentBlobs = currentCommit.getBlobs();
+        Map<String, ObjectId> targetBlobs = targetCommit.getBlobs();
+        TreeSet<String> deletedFiles = new TreeSet<>(currentBlobs.keySet());
         for (String fileName : workingDirectoryFiles) {
+            if (sparse.includes(fileName)) {
+                deletedFiles.add(fileName);
+            }
+        }
+        deletedFiles.removeAll(targetBlobs.keySet());
+        for (String fileName : deletedFiles) {
             File file = join(CWD, fileName);
             if (file.exists()) {
                 file.delete();
+                deleteEmptyParents(file);
             }
+            index.forget(fileName);
         }
 
-        /* Checkout files from the target commit */
-        for (Map.Entry<String, String> entry
-                : targetCommit.getBlobs().entrySet()) {
+        /* Write only the checked-out files whose contents differ from the
+         * target */
+        TreeMap<String, ObjectId> changedFiles = new TreeMap<>();
+        for (Map.Entry<String, ObjectId> entry : targetBlobs.entrySet()) {
             String fileName = entry.getKey();
-            String blobHash = entry.getValue();
-            File blobFile = join(BLOBS_DIR, blobHash);
+            ObjectId blobHash = entry.getValue();
             File file = join(CWD, fileName);
-            writeContents(file, readContents(blobFile));
+            if (!sparse.includes(fileName)) {
+                Metrics.count("checkout.files-skipped", 1);
+                continue;
+            }
+            if (!file.isFile() || !blobHash.equals(currentBlobs.get(fileName))
+                    || !blobHash.equals(index.hash(fileName, file))) {
+                changedFiles.put(fileName, blobHash);
+            }
+        }
+        writeWorkingFiles(changedFiles);
+        for (Map.Entry<String, ObjectId> entry : changedFiles.entrySet()) {
+            index.record(entry.getKey(), join(CWD, entry.getKey()),
+                    entry.getValue());
         }
+        index.save(INDEX_FILE);
+        Metrics.count("checkout.files-written", changedFiles.size());
+        Metrics.count("checkout.files-deleted", deletedFiles.size());
 
         /* Clear the staging area */
         stage.clear();
-        writeObject(STAGING_FILE, stage);
+        stage.save(STAGING_FILE);
     }
 
     private static void checkBlankStagingArea() {
         Stage stage = Stage.fromFile(STAGING_FILE);
         if (!stage.getStagedFiles().isEmpty()
                 || !stage.getRemovedFiles().isEmpty()) {
-            System.out.println("You have uncommitted changes.");
-            System.exit(0);
+            throw error("You have uncommitted changes.");
         }
     }
 
     private static String findSplitPoint(String hash1, String hash2) {
-        HashSet<String> ancestors1 = new HashSet<>();
-        HashSet<String> ancestors2 = new HashSet<>();
-        Queue<String> queue1 = new LinkedList<>();
-        Queue<String> queue2 = new LinkedList<>();
-
-        queue1.offer(hash1);
-        queue2.offer(hash2);
-
-        /* Use BFS to search for latest common ancestor */
-        while (!queue1.isEmpty() || !queue2.isEmpty()) {
-            if (!queue1.isEmpty()) {
-                String current = queue1.poll();
-                if (!ancestors1.add(current)) {
-                    continue;
-                }
-                if (ancestors2.contains(current)) {
-                    return current;
-                }
-                Commit commit = Commit.fromFile(join(COMMITS_DIR, current));
-                String parent = commit.getFirstParent();
-                String secondParent = commit.getSecondParent();
-                if (parent != null) {
-                    queue1.offer(parent);
-                }
-                if (secondParent != null) {
-                    queue1.offer(secondParent);
-                }
-            }
+        /* Walk the commit graph by generation for the latest common ancestor */
+        return CommitGraph.fromDir(GITLET_DIR).mergeBase(hash1, hash2);
+    }
 
-            if (!queue2.isEmpty()) {
-                String current = queue2.poll();
-                if (!ancestors2.add(current)) {
-                    continue;
-                }
-                if (ancestors1.contains(current)) {
-                    return current;
-                }
-                Commit commit = Commit.fromFile(join(COMMITS_DIR, current));
-                String parent = commit.getFirstParent();
-                String secondParent = commit.getSecondParent();
-                if (parent != null) {
-                    queue2.offer(parent);
-                }
-                if (secondParent != null) {
-                    queue2.offer(secondParent);
-                }
+    /** Merge the versions CURRENTFILEHASH and GIVENFILEHASH of FILENAME,
+     *  either of which may be null if that side deleted the file, with
+     *  SPLITFILEHASH (null if the file was not at the split point) as
+     *  their base.  Stores the result as a blob, records it in NEWBLOBS
+     *  and returns true iff it has conflicts.  The result is written to
+     *  the working file if SPARSE includes FILENAME or if it has a
+     *  conflict to resolve.  Versions larger than Diff.MAX_SIZE are not
+     *  merged by line but conflict as whole files. */
+    private static boolean mergeFile(String fileName,
+                                     ObjectId splitFileHash,
+                                     ObjectId currentFileHash,
+                                     ObjectId givenFileHash,
+                                     HashMap<String, ObjectId> newBlobs,
+                                     SparseCheckout sparse) {
+        if (currentFileHash == null || givenFileHash == null
+                || blobSize(splitFileHash) > Diff.MAX_SIZE
+                || blobSize(currentFileHash) > Diff.MAX_SIZE
+                || blobSize(givenFileHash) > Diff.MAX_SIZE) {
+            /* One side deleted the file, or a version is too large to
+             * merge by line: stream both into a whole-file conflict */
+            File file = join(CWD, fileName);
+            if (!file.getParentFile().exists()) {
+                file.getParentFile().mkdirs();
             }
-        }
-
-        return null;
+            Merge.conflict(blobFile(currentFileHash),
+                    blobFile(givenFileHash), file);
+            newBlobs.put(fileName,
+                    ObjectId.fromHex(ObjectStore.storeBlob(file, OBJECTS_DIR)));
+            return true;
+        }
+        byte[] base = splitFileHash == null
+                ? new byte[0] : readBlob(splitFileHash);
+        Merge merge = Merge.merge(base, readBlob(currentFileHash),
+                readBlob(givenFileHash));
+
+        byte[] contents = merge.getContents();
+        if (sparse.includes(fileName) || merge.hasConflict()) {
+            writeWorkingFile(join(CWD, fileName), contents);
+        }
+        newBlobs.put(fileName,
+                ObjectId.fromHex(ObjectStore.storeBlob(contents, OBJECTS_DIR)));
+        return merge.hasConflict();
     }
 
-    private static String dealConflict(String fileName, String currentFileHash,
-                                     String givenFileHash) {
-        File file = join(CWD, fileName);
-        String currentContent, givenContent;
-
-        if (currentFileHash != null) {
-            currentContent = readContentsAsString(join(BLOBS_DIR,
-                    currentFileHash));
-        } else {
-            currentContent = "";
-        }
-        if (givenFileHash != null) {
-            givenContent = readContentsAsString(join(BLOBS_DIR,
-                    givenFileHash));
-        } else {
-            givenContent = "";
-        }
+    /** Return the lines of CONTENTS, or null if CONTENTS is null. */
+    private static Diff.Lines toLines(byte[] contents) {
+        return contents == null ? null : new Diff.Lines(contents);
+    }
 
-        String conflictContent = "<<<<<<< HEAD\n" + currentContent
-                + "=======\n" + givenContent + ">>>>>>>\n";
+    /** Return the loose file naming blob ID, or null if ID is null. */
+    private static File blobFile(ObjectId id) {
+        return id == null ? null : join(BLOBS_DIR, id.toHex());
+    }
 
-        writeContents(file, conflictContent);
+    /** Return the size of the contents of blob ID, or 0 if ID is null. */
+    private static long blobSize(ObjectId id) {
+        return id == null ? 0 : ObjectStore.blobSize(blobFile(id));
+    }
 
-        String hash = sha1(conflictContent);
-        File blobFile = join(BLOBS_DIR, hash);
-        writeContents(blobFile, conflictContent);
-        return hash;
+    /** Return the contents of blob ID, or null if ID is null. */
+    private static byte[] readBlob(ObjectId id) {
+        return id == null ? null
+                : ObjectStore.readBlob(join(BLOBS_DIR, id.toHex()));
     }
 
     private static boolean checkGivenBranch(
-            HashMap<String, String> givenBlobs,
+            HashMap<String, ObjectId> givenBlobs,
             HashSet<String> lockedFiles,
-            HashMap<String, String> splitBlobs,
-            HashMap<String, String> currentBlobs,
-            String givenCommitHash,
-            HashMap<String, String> newBlobs,
+            HashMap<String, ObjectId> splitBlobs,
+            HashMap<String, ObjectId> currentBlobs,
+            HashMap<String, ObjectId> newBlobs,
             boolean conflict,
-            List<String> workingDirectoryFiles) {
+            Set<String> workingDirectoryFiles,
+            SparseCheckout sparse) {
 
         /* Check files in given branch */
-        for (Map.Entry<String, String> entry : givenBlobs.entrySet()) {
+        for (Map.Entry<String, ObjectId> entry : givenBlobs.entrySet()) {
             String fileName = entry.getKey();
-            String givenFileHash = entry.getValue();
+            ObjectId givenFileHash = entry.getValue();
             if (lockedFiles.contains(fileName)) {
                 continue;
             }
 
             if (splitBlobs.containsKey(fileName)
                     && currentBlobs.containsKey(fileName)) {
-                String splitFileHash = splitBlobs.get(fileName);
-                String currentFileHash = currentBlobs.get(fileName);
+                ObjectId splitFileHash = splitBlobs.get(fileName);
+                ObjectId currentFileHash = currentBlobs.get(fileName);
 
-                if (!Objects.equals(splitFileHash, givenCommitHash)
+                if (!Objects.equals(splitFileHash, givenFileHash)
                         && Objects.equals(splitFileHash, currentFileHash)) {
-                    writeContents(join(CWD, fileName),
-                            readContents(join(BLOBS_DIR, givenFileHash)));
+                    if (sparse.includes(fileName)) {
+                        writeWorkingFiles(Collections.singletonMap(fileName,
+                                givenFileHash));
+                    }
                     newBlobs.put(fileName, givenFileHash);
                 } else if (!Objects.equals(splitFileHash, givenFileHash)
                         && !Objects.equals(splitFileHash, currentFileHash)
                         && !Objects.equals(currentFileHash, givenFileHash)) {
-                    String hash = dealConflict(fileName, currentFileHash,
-                            givenFileHash);
-                    newBlobs.put(fileName, hash);
-                    conflict = true;
+                    if (mergeFile(fileName, splitFileHash, currentFileHash,
+                            givenFileHash, newBlobs, sparse)) {
+                        conflict = true;
+                    }
                 }
             } else if (!splitBlobs.containsKey(fileName)
                     && currentBlobs.containsKey(fileName)) {
-                String currentFileHash = currentBlobs.get(fileName);
+                ObjectId currentFileHash = currentBlobs.get(fileName);
 
                 if (!Objects.equals(currentFileHash, givenFileHash)) {
-                    String hash = dealConflict(fileName, currentFileHash,
-                            givenFileHash);
-                    newBlobs.put(fileName, hash);
-                    conflict = true;
+                    if (mergeFile(fileName, null, currentFileHash,
+                            givenFileHash, newBlobs, sparse)) {
+                        conflict = true;
+                    }
                 }
             } else if (!splitBlobs.containsKey(fileName)
                     && !currentBlobs.containsKey(fileName)) {
 
-                if (workingDirectoryFiles.contains(fileName)) {
-                    System.out.println("There is an untracked file in the way; "
-                            + "delete it, or add and commit it first.");
-                    System.exit(0);
+                if (sparse.includes(fileName)) {
+                    if (workingDirectoryFiles.contains(fileName)) {
+                        throw error("There is an untracked file in the way; "
+                                + "delete it, or add and commit it first.");
+                    }
+                    writeWorkingFiles(Collections.singletonMap(fileName,
+                            givenFileHash));
                 }
-
-                writeContents(join(CWD, fileName),
-                        readContents(join(BLOBS_DIR, givenFileHash)));
                 newBlobs.put(fileName, givenFileHash);
             } else {
-                String splitFileHash = splitBlobs.get(fileName);
+                ObjectId splitFileHash = splitBlobs.get(fileName);
 
                 if (!Objects.equals(splitFileHash, givenFileHash)) {
-                    String hash = dealConflict(fileName, null, givenFileHash);
-                    newBlobs.put(fileName, hash);
-                    conflict = true;
+                    if (mergeFile(fileName, splitFileHash, null,
+                            givenFileHash, newBlobs, sparse)) {
+                        conflict = true;
+                    }
                 }
             }
             lockedFiles.add(fileName);
@@ -1008,29 +1264,30 @@ public class Repository {
     }
 
     private static boolean checkCurrentBranch(
-            HashMap<String, String> currentBlobs,
+            HashMap<String, ObjectId> currentBlobs,
             HashSet<String> lockedFiles,
-            HashMap<String, String> splitBlobs,
-            HashMap<String, String> givenBlobs,
-            HashMap<String, String> newBlobs, boolean conflict) {
+            HashMap<String, ObjectId> splitBlobs,
+            HashMap<String, ObjectId> givenBlobs,
+            HashMap<String, ObjectId> newBlobs, boolean conflict,
+            SparseCheckout sparse) {
 
         /* Check files in current branch */
-        for (Map.Entry<String, String> entry : currentBlobs.entrySet()) {
+        for (Map.Entry<String, ObjectId> entry : currentBlobs.entrySet()) {
             String fileName = entry.getKey();
-            String currentFileHash = entry.getValue();
+            ObjectId currentFileHash = entry.getValue();
             if (lockedFiles.contains(fileName)) {
                 continue;
             }
 
             if (splitBlobs.containsKey(fileName) && !givenBlobs.containsKey(fileName)) {
-                String splitFileHash = splitBlobs.get(fileName);
+                ObjectId splitFileHash = splitBlobs.get(fileName);
                 if (Objects.equals(splitFileHash, currentFileHash)) {
                     File file = join(CWD, fileName);
                     file.delete();
+                    deleteEmptyParents(file);
                     newBlobs.remove(fileName);
-                } else {
-                    String hash = dealConflict(fileName, currentFileHash, null);
-                    newBlobs.put(fileName, hash);
+                } else if (mergeFile(fileName, splitFileHash,
+                        currentFileHash, null, newBlobs, sparse)) {
                     conflict = true;
                 }
             }
@@ -1041,25 +1298,12 @@ public class Repository {
 
     private static String findRemoteInitHash(File remoteDir) {
         String headHash = readContentsAsString(join(remoteDir, "HEAD"));
-        String initHash = headHash;
-        while (headHash != null) {
-            initHash = headHash;
-            headHash = Commit.fromFile(join(remoteDir, "objects", "commits",
-                    headHash)).getFirstParent();
-        }
-
-        return initHash;
+        return CommitGraph.fromDir(remoteDir).root(headHash);
     }
 
     private static boolean isAncestor(String localHash, String remoteHash) {
-        while (localHash != null) {
-            if (localHash.equals(remoteHash)) {
-                return true;
-            }
-            localHash = Commit.fromFile(join(COMMITS_DIR,
-                    localHash)).getFirstParent();
-        }
-        return false;
+        return CommitGraph.fromDir(GITLET_DIR).isAncestor(remoteHash,
+                localHash);
     }
 
     private static String convertPath(String path) {
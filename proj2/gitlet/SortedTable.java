@@ -0,0 +1,305 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/** A file of fixed-width entries sorted by a key at the start of each
+ *  entry, for lookups by binary search, with a journal of the entries
+ *  added since it was written.
+ *
+ *  The main file starts with HEADER_LONGS longs kept for the owner, then
+ *  a fan-out table of 256 ints, where entry B is the number of entries
+ *  whose key starts with a byte of at most B, then the sorted entries.  A
+ *  lookup narrows the search to one fan-out bucket, binary-searches it
+ *  and then scans the journal, a file of unsorted entries beside the main
+ *  one that is merged into it once it grows past JOURNAL_LIMIT entries.
+ *  @author skye-ye
+ */
+class SortedTable {
+
+    /** Number of longs in the header of the main file. */
+    static final int HEADER_LONGS = 2;
+
+    /** Size of the fan-out table. */
+    private static final int FANOUT_SIZE = 256 * 4;
+    /** Offset of the first entry of the main file. */
+    private static final int ENTRIES_START = HEADER_LONGS * 8 + FANOUT_SIZE;
+    /** Number of journal entries that triggers a merge. */
+    private static final int JOURNAL_LIMIT = 1024;
+
+    /** The main file. */
+    private final File file;
+    /** The journal file. */
+    private final File journal;
+    /** The size of the key of each entry. */
+    private final int keySize;
+    /** The size of each entry. */
+    private final int width;
+    /** The mapped main file, or null if it has not been mapped. */
+    private MappedByteBuffer main;
+    /** The entries of the journal, or null if it has not been read. */
+    private List<byte[]> journalEntries;
+
+    /** The table in FILE, whose journal is FILE with ".new" appended, of
+     *  entries of WIDTH bytes starting with a key of KEYSIZE bytes. */
+    SortedTable(File file, int keySize, int width) {
+        this.file = file;
+        this.journal = new File(file.getPath() + ".new");
+        this.keySize = keySize;
+        this.width = width;
+    }
+
+    /** Return true iff the main file exists. */
+    boolean exists() {
+        return file.exists();
+    }
+
+    /** Delete the main file and the journal. */
+    void delete() {
+        file.delete();
+        journal.delete();
+        main = null;
+        journalEntries = null;
+    }
+
+    /** Return header long I of the main file. */
+    long header(int i) {
+        return map().getLong(8 * i);
+    }
+
+    /** Return the entries whose key is KEY, each as a buffer positioned at
+     *  its start.  An entry may appear twice if a merge was interrupted. */
+    List<ByteBuffer> lookup(byte[] key) {
+        List<ByteBuffer> result = new ArrayList<>();
+        MappedByteBuffer index = map();
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : index.getInt(HEADER_LONGS * 8
+                + 4 * (first - 1));
+        int hi = index.getInt(HEADER_LONGS * 8 + 4 * first);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(index, ENTRIES_START + mid * width, key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int count = count(index);
+        for (int i = lo; i < count; i += 1) {
+            int pos = ENTRIES_START + i * width;
+            if (compare(index, pos, key) != 0) {
+                break;
+            }
+            byte[] entry = new byte[width];
+            index.get(pos, entry);
+            result.add(ByteBuffer.wrap(entry));
+        }
+        for (byte[] entry : readJournal()) {
+            ByteBuffer buf = ByteBuffer.wrap(entry);
+            if (compare(buf, 0, key) == 0) {
+                result.add(buf);
+            }
+        }
+        return result;
+    }
+
+    /** Return up to LIMIT entries whose key starts with the first BITS
+     *  bits of KEY, a full-size key whose remaining bits are zero, each as
+     *  a buffer positioned at its start.  Entries of the main file come
+     *  first, in key order and without repeats, then those of the
+     *  journal, which may repeat them. */
+    List<ByteBuffer> lookupPrefix(byte[] key, int bits, int limit) {
+        List<ByteBuffer> result = new ArrayList<>();
+        MappedByteBuffer index = map();
+        int count = count(index);
+        int lo = 0;
+        int hi = count;
+        if (bits >= 8) {
+            int first = key[0] & 0xff;
+            lo = first == 0 ? 0 : index.getInt(HEADER_LONGS * 8
+                    + 4 * (first - 1));
+            hi = index.getInt(HEADER_LONGS * 8 + 4 * first);
+        }
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(index, ENTRIES_START + mid * width, key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        byte[] previous = null;
+        for (int i = lo; i < count && result.size() < limit; i += 1) {
+            int pos = ENTRIES_START + i * width;
+            if (!startsWith(index, pos, key, bits)) {
+                break;
+            }
+            byte[] entry = new byte[width];
+            index.get(pos, entry);
+            if (!Arrays.equals(entry, previous)) {
+                result.add(ByteBuffer.wrap(entry));
+            }
+            previous = entry;
+        }
+        for (byte[] entry : readJournal()) {
+            ByteBuffer buf = ByteBuffer.wrap(entry);
+            if (result.size() < limit && startsWith(buf, 0, key, bits)) {
+                result.add(buf);
+            }
+        }
+        return result;
+    }
+
+    /** Return the entries of the journal, in the order they were added.
+     *  A partial entry at its end is left out. */
+    List<byte[]> readJournal() {
+        if (journalEntries != null) {
+            return journalEntries;
+        }
+        journalEntries = new ArrayList<>();
+        if (journal.exists()) {
+            byte[] contents = readContents(journal);
+            for (int pos = 0; pos + width <= contents.length; pos += width) {
+                journalEntries.add(Arrays.copyOfRange(contents, pos,
+                        pos + width));
+            }
+        }
+        return journalEntries;
+    }
+
+    /** Cut the journal down to its first COUNT entries. */
+    void truncateJournal(int count) {
+        if (journal.exists() && journal.length() > (long) count * width) {
+            try (RandomAccessFile out = new RandomAccessFile(journal, "rw")) {
+                out.setLength((long) count * width);
+                journalEntries = null;
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Add ENTRIES to the journal. */
+    void append(Collection<byte[]> entries) {
+        ByteBuffer buf = ByteBuffer.allocate(entries.size() * width);
+        for (byte[] entry : entries) {
+            buf.put(entry);
+        }
+        try {
+            Files.write(journal.toPath(), buf.array(),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        journalEntries = null;
+    }
+
+    /** Merge the journal into the main file, with header HEADER, if it
+     *  has grown past JOURNAL_LIMIT entries. */
+    void compact(long[] header) {
+        if (journal.length() > (long) JOURNAL_LIMIT * width) {
+            MappedByteBuffer index = map();
+            List<byte[]> all = new ArrayList<>();
+            for (int i = 0; i < count(index); i += 1) {
+                byte[] entry = new byte[width];
+                index.get(ENTRIES_START + i * width, entry);
+                all.add(entry);
+            }
+            all.addAll(readJournal());
+            write(all, header);
+        }
+    }
+
+    /** Write ENTRIES, in any order, as the main file with header HEADER,
+     *  and clear the journal. */
+    void write(List<byte[]> entries, long[] header) {
+        byte[][] sorted = entries.toArray(new byte[0][]);
+        Arrays.sort(sorted, (a, b) -> compare(ByteBuffer.wrap(a), 0, b));
+        ByteBuffer buf = ByteBuffer.allocate(ENTRIES_START
+                + sorted.length * width);
+        for (int i = 0; i < HEADER_LONGS; i += 1) {
+            buf.putLong(8 * i, header[i]);
+        }
+        int[] fanout = new int[256];
+        buf.position(ENTRIES_START);
+        for (byte[] entry : sorted) {
+            fanout[entry[0] & 0xff] += 1;
+            buf.put(entry);
+        }
+        int total = 0;
+        for (int b = 0; b < 256; b += 1) {
+            total += fanout[b];
+            buf.putInt(HEADER_LONGS * 8 + 4 * b, total);
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        writeContents(temp, buf.array());
+        try {
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        journal.delete();
+        main = null;
+        journalEntries = null;
+    }
+
+    /** Return the number of entries in the mapped main file INDEX. */
+    private static int count(ByteBuffer index) {
+        return index.getInt(HEADER_LONGS * 8 + FANOUT_SIZE - 4);
+    }
+
+    /** Map the main file into memory, unless it already is. */
+    private MappedByteBuffer map() {
+        if (main == null) {
+            try (FileChannel channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.READ)) {
+                main = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                        channel.size());
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        return main;
+    }
+
+    /** Return true iff the key at position POS of BUF starts with the
+     *  first BITS bits of KEY. */
+    private static boolean startsWith(ByteBuffer buf, int pos, byte[] key,
+                                      int bits) {
+        int k = 0;
+        for (; 8 * (k + 1) <= bits; k += 1) {
+            if (buf.get(pos + k) != key[k]) {
+                return false;
+            }
+        }
+        int rest = bits - 8 * k;
+        int mask = (0xff << (8 - rest)) & 0xff;
+        return rest == 0 || ((buf.get(pos + k) ^ key[k]) & mask) == 0;
+    }
+
+    /** Compare the key at position POS of BUF with KEY. */
+    private int compare(ByteBuffer buf, int pos, byte[] key) {
+        for (int k = 0; k < keySize; k += 1) {
+            int cmp = Integer.compare(buf.get(pos + k) & 0xff, key[k] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,164 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static gitlet.Utils.*;
+
+/** The sparse-checkout patterns of a repository, which choose the tracked
+ *  paths that checkout, reset and merge write to the working directory.
+ *  Paths outside them stay tracked, but are left out of the working
+ *  directory and ignored by status and the untracked-file checks.
+ *
+ *  The patterns are kept in the sparse-checkout file of the .gitlet
+ *  directory, one per line; blank lines and lines starting with '#' are
+ *  skipped.  A pattern matches a path if it matches the whole path or a
+ *  directory on it, so "docs" matches "docs/a.txt".  '*' and '?' match
+ *  any characters but '/', "**" matches any characters, a trailing '/'
+ *  matches directories only and a leading '/' is ignored.  A pattern
+ *  starting with '!' excludes the paths it matches, and the last pattern
+ *  that matches a path decides.  Without the file, every path matches.
+ *  @author skye-ye
+ */
+class SparseCheckout {
+
+    /** Name of the pattern file inside a .gitlet directory. */
+    static final String FILE_NAME = "sparse-checkout";
+
+    /** One pattern. */
+    private static class Rule {
+        /** The paths or directories the pattern matches. */
+        final Pattern pattern;
+        /** True iff the pattern only matches directories. */
+        final boolean directoryOnly;
+        /** True iff the pattern excludes the paths it matches. */
+        final boolean negated;
+
+        Rule(String line) {
+            negated = line.startsWith("!");
+            String glob = negated ? line.substring(1) : line;
+            directoryOnly = glob.endsWith("/");
+            glob = glob.replaceAll("^/+|/+$", "");
+            pattern = Pattern.compile(toRegex(glob));
+        }
+    }
+
+    /** The patterns, as written. */
+    private final List<String> lines;
+    /** The rules of the patterns, in order. */
+    private final List<Rule> rules = new ArrayList<>();
+
+    /** The sparse checkout of LINES, or a full checkout if LINES is
+     *  null. */
+    private SparseCheckout(List<String> lines) {
+        this.lines = lines;
+        if (lines != null) {
+            for (String line : lines) {
+                rules.add(new Rule(line));
+            }
+        }
+    }
+
+    /** Return the sparse checkout of the repository in GITLETDIR. */
+    static SparseCheckout fromDir(File gitletDir) {
+        File file = join(gitletDir, FILE_NAME);
+        if (!file.exists()) {
+            return new SparseCheckout(null);
+        }
+        return Cache.file(file, SparseCheckout.class,
+            f -> new SparseCheckout(parse(readContentsAsString(f))));
+    }
+
+    /** Return the sparse checkout of PATTERNS, or a full checkout if
+     *  PATTERNS is null. */
+    static SparseCheckout of(List<String> patterns) {
+        return new SparseCheckout(patterns == null
+                ? null : parse(String.join("\n", patterns)));
+    }
+
+    /** Make this the sparse checkout of the repository in GITLETDIR. */
+    void save(File gitletDir) {
+        File file = join(gitletDir, FILE_NAME);
+        if (lines == null) {
+            file.delete();
+            return;
+        }
+        StringBuilder contents = new StringBuilder();
+        for (String line : lines) {
+            contents.append(line).append('\n');
+        }
+        writeContents(file, contents.toString());
+        Cache.put(file, this);
+    }
+
+    /** Return true iff only some paths are checked out. */
+    boolean isSparse() {
+        return lines != null;
+    }
+
+    /** Return the patterns. */
+    List<String> getPatterns() {
+        return lines == null ? Collections.emptyList() : lines;
+    }
+
+    /** Return true iff the tracked file PATH belongs in the working
+     *  directory. */
+    boolean includes(String path) {
+        if (lines == null) {
+            return true;
+        }
+        boolean result = false;
+        for (Rule rule : rules) {
+            if (rule.negated == result && matches(rule, path)) {
+                result = !rule.negated;
+            }
+        }
+        return result;
+    }
+
+    /** Return true iff RULE matches PATH or one of its directories. */
+    private static boolean matches(Rule rule, String path) {
+        for (int end = path.indexOf(Tree.SEPARATOR); end >= 0;
+             end = path.indexOf(Tree.SEPARATOR, end + 1)) {
+            if (rule.pattern.matcher(path.substring(0, end)).matches()) {
+                return true;
+            }
+        }
+        return !rule.directoryOnly && rule.pattern.matcher(path).matches();
+    }
+
+    /** Return the patterns among the lines of TEXT. */
+    private static List<String> parse(String text) {
+        List<String> result = new ArrayList<>();
+        for (String line : text.split("\n")) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                result.add(line);
+            }
+        }
+        return result;
+    }
+
+    /** Return the regular expression of the pattern GLOB. */
+    private static String toRegex(String glob) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < glob.length(); i += 1) {
+            char c = glob.charAt(i);
+            if (c == '*' && i + 1 < glob.length()
+                    && glob.charAt(i + 1) == '*') {
+                result.append(".*");
+                i += 1;
+            } else if (c == '*') {
+                result.append("[^/]*");
+            } else if (c == '?') {
+                result.append("[^/]");
+            } else {
+                result.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return result.toString();
+    }
+}
@@ -1,14 +1,26 @@
 package gitlet;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
 
 import static gitlet.Utils.*;
 
 public class Stage implements Serializable {
-    private final HashMap<String, String> stagedFiles;
+    /** Fixed so that stages written by earlier versions stay readable. */
+    private static final long serialVersionUID = 6026236064356939384L;
+    /** The version of the binary encoding written by toBytes. */
+    private static final int FORMAT_VERSION = 1;
+
+    private final HashMap<String, ObjectId> stagedFiles;
     private final HashSet<String> removedFiles;
 
     public Stage() {
@@ -19,25 +31,27 @@ public class Stage implements Serializable {
     public void add(String fileName) {
         File file = new File(fileName);
         if (!file.exists()) {
-            System.out.println("File does not exist.");
-            System.exit(0);
+            throw error("File does not exist.");
         }
-        stagedFiles.put(fileName, sha1(readContents(file)));
+        add(fileName, ObjectId.fromHex(sha1File(file)));
+    }
+
+    /** Stage FILENAME, whose contents are already known to hash to ID. */
+    public void add(String fileName, ObjectId id) {
+        stagedFiles.put(fileName, id);
         removedFiles.remove(fileName);
     }
 
     public void removeStagedFile(String fileName) {
         if (!stagedFiles.containsKey(fileName)) {
-            System.out.println("No reason to remove the file.");
-            System.exit(0);
+            throw error("No reason to remove the file.");
         }
         stagedFiles.remove(fileName);
     }
 
     public void resetRemovedFile(String fileName) {
         if (!removedFiles.contains(fileName)) {
-            System.out.println("No reason to remove the file.");
-            System.exit(0);
+            throw error("No reason to remove the file.");
         }
         removedFiles.remove(fileName);
     }
@@ -51,8 +65,8 @@ public class Stage implements Serializable {
         return stagedFiles.containsKey(fileName);
     }
 
-    public boolean containsSameStagedFile(String fileName, String sha1) {
-        return stagedFiles.containsKey(fileName) && stagedFiles.get(fileName).equals(sha1);
+    public boolean containsSameStagedFile(String fileName, ObjectId id) {
+        return stagedFiles.containsKey(fileName) && stagedFiles.get(fileName).equals(id);
     }
 
     public boolean containsRemovedFile(String fileName) {
@@ -65,17 +79,86 @@ public class Stage implements Serializable {
 
     public static Stage fromFile(File fileName) {
         if (!fileName.exists()) {
-            System.out.println("No stage file found.");
-            System.exit(0);
+            throw error("No stage file found.");
+        }
+        return Cache.file(fileName, Stage.class,
+                file -> fromBytes(readContents(file)));
+    }
+
+    /** Return the stage whose stored form is BYTES, in either the binary
+     *  encoding or the Java serialization of earlier versions. */
+    public static Stage fromBytes(byte[] bytes) {
+        if (!Codec.isEncoded(bytes, Codec.STAGE)) {
+            return deserialize(bytes, Stage.class);
+        }
+        Codec.Reader in = new Codec.Reader(bytes, Codec.STAGE, FORMAT_VERSION);
+        List<String> paths = in.readPaths();
+        Stage stage = new Stage();
+        int staged = (int) in.readVarint();
+        for (int i = 0; i < staged; i += 1) {
+            String path = paths.get((int) in.readVarint());
+            stage.stagedFiles.put(path, in.readId());
+        }
+        int removed = (int) in.readVarint();
+        for (int i = 0; i < removed; i += 1) {
+            stage.removedFiles.add(paths.get((int) in.readVarint()));
         }
-        return readObject(fileName, Stage.class);
+        return stage;
+    }
+
+    /** Read a stage written with Java serialization by an earlier version
+     *  from IN, whose staged files map to hexadecimal ids. */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        for (Map.Entry<String, Object> entry
+                : ((Map<String, Object>) (Map<?, ?>) stagedFiles).entrySet()) {
+            if (entry.getValue() instanceof String) {
+                entry.setValue(ObjectId.fromHex((String) entry.getValue()));
+            }
+        }
+    }
+
+    /** Return the stored form of this stage in the binary encoding.  Staged
+     *  and removed files refer to one shared, sorted table of paths. */
+    public byte[] toBytes() {
+        TreeSet<String> table = new TreeSet<>(stagedFiles.keySet());
+        table.addAll(removedFiles);
+        List<String> paths = new ArrayList<>(table);
+        HashMap<String, Integer> positions = new HashMap<>();
+        for (int i = 0; i < paths.size(); i += 1) {
+            positions.put(paths.get(i), i);
+        }
+
+        Codec.Writer out = new Codec.Writer(Codec.STAGE, FORMAT_VERSION);
+        out.writePaths(paths);
+        List<String> staged = new ArrayList<>(stagedFiles.keySet());
+        Collections.sort(staged);
+        out.writeVarint(staged.size());
+        for (String path : staged) {
+            out.writeVarint(positions.get(path));
+            out.writeId(stagedFiles.get(path));
+        }
+        List<String> removed = new ArrayList<>(removedFiles);
+        Collections.sort(removed);
+        out.writeVarint(removed.size());
+        for (String path : removed) {
+            out.writeVarint(positions.get(path));
+        }
+        return out.toByteArray();
+    }
+
+    /** Write this stage to FILENAME in the binary encoding. */
+    public void save(File fileName) {
+        Cache.write(fileName, this, () -> writeContents(fileName, toBytes()));
     }
 
-    public String getHash(String fileName) {
+    public ObjectId getHash(String fileName) {
         return stagedFiles.get(fileName);
     }
 
-    public HashMap<String, String> getStagedFiles() {
+    public HashMap<String, ObjectId> getStagedFiles() {
         return stagedFiles;
     }
 
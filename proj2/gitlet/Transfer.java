@@ -0,0 +1,212 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/** Copies the history of a commit from one repository to another, as
+ *  done by push and fetch.
+ *
+ *  The sender first negotiates what to send: the receiver's branch heads
+ *  are its "haves", and the commits reachable from the wanted commit but
+ *  from none of the haves known to the sender are found with one walk of
+ *  the sender's commit graph.  The trees and blobs under the commits at
+ *  the edge of that set are already in the receiver, so everything they
+ *  reach is skipped.  The rest, with the chunks of any chunked blobs
+ *  that the receiver lacks, is written into the receiver as a single
+ *  pack, instead of checking for and copying one object file at a time.
+ *  Objects are read only as the pack is written, so a large transfer
+ *  does not hold its objects in memory.
+ *  @author skye-ye
+ */
+class Transfer {
+
+    /** Copy commit WANT and all of its history that is missing from the
+     *  repository in the .gitlet directory TODIR from the one in FROMDIR.
+     *  Returns the ids of the commits copied. */
+    static List<String> send(File fromDir, File toDir, String want) {
+        File fromObjects = join(fromDir, "objects");
+        CommitLog toLog = new CommitLog(toDir);
+        if (toLog.contains(want)) {
+            return new ArrayList<>();
+        }
+
+        /* Find the commits the receiver does not have */
+        List<String> haves = new ArrayList<>();
+        for (String ref : refs(toDir)) {
+            if (ObjectStore.exists(join(fromObjects, "commits", ref))) {
+                haves.add(ref);
+            }
+        }
+        CommitGraph graph = CommitGraph.fromDir(fromDir);
+        HashSet<String> missing = graph.missing(want, haves);
+
+        /* Order them depth first from WANT, and collect the edge */
+        List<String> commits = new ArrayList<>();
+        HashSet<String> edge = new HashSet<>();
+        HashSet<String> seen = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>();
+        pending.push(want);
+        while (!pending.isEmpty()) {
+            String hash = pending.pop();
+            if (!seen.add(hash)) {
+                continue;
+            }
+            if (!missing.contains(hash) || toLog.contains(hash)) {
+                edge.add(hash);
+                continue;
+            }
+            commits.add(hash);
+            for (String parent : new String[] {graph.getFirstParent(hash),
+                                               graph.getSecondParent(hash)}) {
+                if (parent != null) {
+                    pending.push(parent);
+                }
+            }
+        }
+
+        /* Skip the objects the receiver already has through the edge */
+        HashSet<ObjectId> knownTrees = new HashSet<>();
+        HashSet<ObjectId> knownBlobs = new HashSet<>();
+        for (String hash : edge) {
+            Commit commit = Commit.fromFile(join(fromObjects, "commits",
+                    hash));
+            collect(commit, fromObjects, knownTrees, knownBlobs, null);
+        }
+
+        /* Pack everything else, reading each object as it is written */
+        List<File> objects = new ArrayList<>();
+        List<Commit> sent = new ArrayList<>();
+        for (String hash : commits) {
+            File commitFile = join(fromObjects, "commits", hash);
+            Commit commit = Commit.fromBytes(ObjectStore.read(commitFile));
+            objects.add(commitFile);
+            collect(commit, fromObjects, knownTrees, knownBlobs, objects);
+            sent.add(commit);
+        }
+        addChunks(objects, fromObjects, join(toDir, "objects"));
+        long bytes = ObjectStore.writePack(join(toDir, "objects"), objects);
+
+        /* Record the new commits in the receiver's indexes */
+        for (int i = 0; i < commits.size(); i += 1) {
+            toLog.append(commits.get(i), sent.get(i));
+        }
+        CommitGraph.fromDir(toDir).ensure(want);
+
+        Metrics.count("transfer.commits", commits.size());
+        Metrics.count("transfer.objects", objects.size());
+        Metrics.count("transfer.bytes", bytes);
+        return commits;
+    }
+
+    /** Return the commits that the branches and HEAD of the repository in
+     *  the .gitlet directory GITLETDIR point to, including remote-tracking
+     *  branches. */
+    static HashSet<String> refs(File gitletDir) {
+        HashSet<String> result = new HashSet<>();
+        File head = join(gitletDir, "HEAD");
+        if (head.isFile()) {
+            result.add(readContentsAsString(head));
+        }
+        File headsDir = join(gitletDir, "heads");
+        Deque<File> dirs = new ArrayDeque<>();
+        dirs.push(headsDir);
+        while (!dirs.isEmpty()) {
+            File[] files = dirs.pop().listFiles();
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    dirs.push(file);
+                } else {
+                    result.add(readContentsAsString(file));
+                }
+            }
+        }
+        result.remove("");
+        return result;
+    }
+
+    /** Add the trees and blobs of COMMIT in the objects directory
+     *  FROMOBJECTS that are not in KNOWNTREES or KNOWNBLOBS to those sets,
+     *  and, if OBJECTS is not null, their object files to OBJECTS.
+     *  Subtrees already known are not read again, and blobs are not read
+     *  at all. */
+    private static void collect(Commit commit, File fromObjects,
+                                HashSet<ObjectId> knownTrees,
+                                HashSet<ObjectId> knownBlobs,
+                                List<File> objects) {
+        if (!commit.hasTree()) {
+            addBlobs(commit.getBlobs().values(), fromObjects, knownBlobs,
+                    objects);
+            return;
+        }
+        Deque<ObjectId> pending = new ArrayDeque<>();
+        pending.push(commit.getTree());
+        while (!pending.isEmpty()) {
+            ObjectId id = pending.pop();
+            if (!knownTrees.add(id)) {
+                continue;
+            }
+            File treeFile = join(fromObjects, "trees", id.toHex());
+            byte[] contents = ObjectStore.read(treeFile);
+            if (objects != null) {
+                objects.add(treeFile);
+            }
+            List<ObjectId> blobs = new ArrayList<>();
+            for (Tree.Entry entry
+                    : Tree.fromBytes(contents).getEntries().values()) {
+                if (entry.isTree) {
+                    pending.push(entry.id);
+                } else {
+                    blobs.add(entry.id);
+                }
+            }
+            addBlobs(blobs, fromObjects, knownBlobs, objects);
+        }
+    }
+
+    /** Add to OBJECTS the chunks of the chunked blobs among OBJECTS that
+     *  are in FROMOBJECTS but not yet in TOOBJECTS. */
+    private static void addChunks(List<File> objects, File fromObjects,
+                                  File toObjects) {
+        HashSet<String> seen = new HashSet<>();
+        List<File> chunks = new ArrayList<>();
+        for (File object : objects) {
+            if (!object.getParentFile().getName().equals("blobs")) {
+                continue;
+            }
+            Chunker.Manifest manifest = Chunker.manifestOf(object);
+            if (manifest == null) {
+                continue;
+            }
+            for (String id : manifest.ids) {
+                if (seen.add(id)
+                        && !ObjectStore.exists(join(toObjects, "chunks", id))) {
+                    chunks.add(join(fromObjects, "chunks", id));
+                }
+            }
+        }
+        objects.addAll(chunks);
+    }
+
+    /** Add the BLOBS in FROMOBJECTS that are not in KNOWNBLOBS to it and,
+     *  if OBJECTS is not null, their object files to OBJECTS. */
+    private static void addBlobs(Collection<ObjectId> blobs,
+                                 File fromObjects,
+                                 HashSet<ObjectId> knownBlobs,
+                                 List<File> objects) {
+        for (ObjectId id : blobs) {
+            if (knownBlobs.add(id) && objects != null) {
+                objects.add(join(fromObjects, "blobs", id.toHex()));
+            }
+        }
+    }
+}
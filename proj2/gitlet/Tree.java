@@ -0,0 +1,247 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** Represents a gitlet tree object: the contents of one directory, mapping
+ *  each name in it to a blob or to the tree of a subdirectory.
+ *
+ *  Trees are content addressed like blobs, so a directory that did not
+ *  change between two commits is the same object in both, and a commit
+ *  only has to write new trees along the paths that changed.  Paths of
+ *  tracked files use '/' to separate directories.
+ *  @author skye-ye
+ */
+class Tree {
+
+    /** The separator between directories in a tracked path. */
+    static final char SEPARATOR = '/';
+
+    /** The version of the binary encoding written by toBytes. */
+    private static final int FORMAT_VERSION = 1;
+    /** Entry type of a blob. */
+    private static final int BLOB = 0;
+    /** Entry type of a subtree. */
+    private static final int TREE = 1;
+
+    /** One name in a tree. */
+    static class Entry {
+        /** True iff this entry is a subtree rather than a blob. */
+        final boolean isTree;
+        /** The id of the blob or subtree. */
+        final ObjectId id;
+
+        Entry(boolean isTree, ObjectId id) {
+            this.isTree = isTree;
+            this.id = id;
+        }
+    }
+
+    /** The entries of this tree, sorted by name. */
+    private final TreeMap<String, Entry> entries = new TreeMap<>();
+
+    /** Return the entries of this tree, sorted by name. */
+    Map<String, Entry> getEntries() {
+        return entries;
+    }
+
+    /** Return the tree whose stored form is BYTES. */
+    static Tree fromBytes(byte[] bytes) {
+        Codec.Reader in = new Codec.Reader(bytes, Codec.TREE, FORMAT_VERSION);
+        Tree tree = new Tree();
+        for (String name : in.readPaths()) {
+            boolean isTree = in.readByte() == TREE;
+            tree.entries.put(name, new Entry(isTree, in.readId()));
+        }
+        return tree;
+    }
+
+    /** Return the stored form of this tree. */
+    byte[] toBytes() {
+        Codec.Writer out = new Codec.Writer(Codec.TREE, FORMAT_VERSION);
+        out.writePaths(new ArrayList<>(entries.keySet()));
+        for (Entry entry : entries.values()) {
+            out.writeByte(entry.isTree ? TREE : BLOB);
+            out.writeId(entry.id);
+        }
+        return out.toByteArray();
+    }
+
+    /** Return tree ID from the trees directory TREESDIR. */
+    static Tree read(File treesDir, ObjectId id) {
+        return fromBytes(ObjectStore.read(join(treesDir, id.toHex())));
+    }
+
+    /** Store this tree in TREESDIR unless it is already there, and return
+     *  its id. */
+    ObjectId write(File treesDir) {
+        byte[] contents = toBytes();
+        String hash = sha1(contents);
+        File treeFile = join(treesDir, hash);
+        if (!ObjectStore.exists(treeFile)) {
+            treesDir.mkdirs();
+            writeContents(treeFile, contents);
+            ObjectStore.written(treeFile);
+        }
+        return ObjectId.fromHex(hash);
+    }
+
+    /** Store the trees for the flat map BLOBS from paths to blob ids in
+     *  TREESDIR and return the id of the root tree. */
+    static ObjectId build(File treesDir, Map<String, ObjectId> blobs) {
+        return update(treesDir, null, blobs, new ArrayList<>());
+    }
+
+    /** Return the id of the root tree obtained from root tree ROOT (null
+     *  for an empty tree) by setting the paths in ADDED to the given blob
+     *  ids and dropping the paths in REMOVED.  Only the trees along the
+     *  changed paths are read and written; every other subtree is shared
+     *  with ROOT. */
+    static ObjectId update(File treesDir, ObjectId root,
+                           Map<String, ObjectId> added,
+                           Collection<String> removed) {
+        HashMap<String, ObjectId> changes = new HashMap<>();
+        for (String path : removed) {
+            changes.put(path, null);
+        }
+        changes.putAll(added);
+        ObjectId result = update(treesDir, root, changes);
+        return result == null ? new Tree().write(treesDir) : result;
+    }
+
+    /** Apply CHANGES, mapping paths relative to tree ID to new blob ids
+     *  or to null for removal, and return the id of the resulting tree, or
+     *  null if it is empty. */
+    private static ObjectId update(File treesDir, ObjectId id,
+                                   Map<String, ObjectId> changes) {
+        Tree tree = id == null ? new Tree() : read(treesDir, id);
+        TreeMap<String, HashMap<String, ObjectId>> nested = new TreeMap<>();
+        for (Map.Entry<String, ObjectId> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf(SEPARATOR);
+            if (slash < 0) {
+                if (change.getValue() == null) {
+                    Entry old = tree.entries.get(path);
+                    if (old != null && !old.isTree) {
+                        tree.entries.remove(path);
+                    }
+                } else {
+                    tree.entries.put(path, new Entry(false, change.getValue()));
+                }
+            } else {
+                nested.computeIfAbsent(path.substring(0, slash),
+                        k -> new HashMap<>())
+                        .put(path.substring(slash + 1), change.getValue());
+            }
+        }
+        for (Map.Entry<String, HashMap<String, ObjectId>> dir
+                : nested.entrySet()) {
+            Entry old = tree.entries.get(dir.getKey());
+            ObjectId oldId = old != null && old.isTree ? old.id : null;
+            ObjectId newId = update(treesDir, oldId, dir.getValue());
+            if (newId != null) {
+                tree.entries.put(dir.getKey(), new Entry(true, newId));
+            } else if (oldId != null) {
+                tree.entries.remove(dir.getKey());
+            }
+        }
+        if (tree.entries.isEmpty()) {
+            return null;
+        }
+        return tree.write(treesDir);
+    }
+
+    /** Return the flat map from paths to blob ids of root tree ROOT. */
+    static HashMap<String, ObjectId> flatten(File treesDir, ObjectId root) {
+        HashMap<String, ObjectId> result = new HashMap<>();
+        flatten(treesDir, root, "", result);
+        return result;
+    }
+
+    /** Add the blobs of tree ID to RESULT, with PREFIX before their
+     *  names. */
+    private static void flatten(File treesDir, ObjectId id, String prefix,
+                                Map<String, ObjectId> result) {
+        for (Map.Entry<String, Entry> item
+                : read(treesDir, id).entries.entrySet()) {
+            String path = prefix + item.getKey();
+            if (item.getValue().isTree) {
+                flatten(treesDir, item.getValue().id, path + SEPARATOR,
+                        result);
+            } else {
+                result.put(path, item.getValue().id);
+            }
+        }
+    }
+
+    /** Return the paths of the files that differ between root trees OLD
+     *  and NEW, either of which may be null for an empty tree.  Subtrees
+     *  with the same id in both are not read. */
+    static TreeSet<String> changedPaths(File treesDir, ObjectId old,
+                                        ObjectId now) {
+        TreeSet<String> result = new TreeSet<>();
+        changedPaths(treesDir, old, now, "", result);
+        return result;
+    }
+
+    /** Add the paths of the files that differ between trees OLD and NOW,
+     *  with PREFIX before their names, to RESULT. */
+    private static void changedPaths(File treesDir, ObjectId old,
+                                     ObjectId now, String prefix,
+                                     Set<String> result) {
+        if (Objects.equals(old, now)) {
+            return;
+        }
+        Map<String, Entry> oldEntries = old == null
+                ? new TreeMap<>() : read(treesDir, old).entries;
+        Map<String, Entry> newEntries = now == null
+                ? new TreeMap<>() : read(treesDir, now).entries;
+        TreeSet<String> names = new TreeSet<>(oldEntries.keySet());
+        names.addAll(newEntries.keySet());
+        for (String name : names) {
+            Entry a = oldEntries.get(name);
+            Entry b = newEntries.get(name);
+            String path = prefix + name;
+            changedPaths(treesDir, a != null && a.isTree ? a.id : null,
+                    b != null && b.isTree ? b.id : null,
+                    path + SEPARATOR, result);
+            ObjectId oldBlob = a != null && !a.isTree ? a.id : null;
+            ObjectId newBlob = b != null && !b.isTree ? b.id : null;
+            if (!Objects.equals(oldBlob, newBlob)) {
+                result.add(path);
+            }
+        }
+    }
+
+    /** Return the blob id of PATH in root tree ROOT, or null if PATH is
+     *  not tracked there.  Reads one tree per directory on PATH. */
+    static ObjectId lookup(File treesDir, ObjectId root, String path) {
+        ObjectId id = root;
+        List<String> parts = new ArrayList<>();
+        int start = 0;
+        for (int i = path.indexOf(SEPARATOR); i >= 0;
+             i = path.indexOf(SEPARATOR, start)) {
+            parts.add(path.substring(start, i));
+            start = i + 1;
+        }
+        parts.add(path.substring(start));
+        for (int i = 0; i < parts.size(); i += 1) {
+            Entry entry = read(treesDir, id).entries.get(parts.get(i));
+            if (entry == null || entry.isTree != (i < parts.size() - 1)) {
+                return null;
+            }
+            id = entry.id;
+        }
+        return id;
+    }
+}
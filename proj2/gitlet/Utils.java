@@ -1,21 +1,24 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.Formatter;
 import java.util.List;
 
 
@@ -31,11 +34,15 @@ class Utils {
     /** The length of a complete SHA-1 UID as a hexadecimal numeral. */
     static final int UID_LENGTH = 40;
 
+    /** The size of the buffer used to stream file contents. */
+    static final int BUFFER_SIZE = 1 << 16;
+
     /* SHA-1 HASH VALUES. */
 
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
      *  be any mixture of byte arrays and Strings. */
     static String sha1(Object... vals) {
+        long start = Metrics.start();
         try {
             MessageDigest md = MessageDigest.getInstance("SHA-1");
             for (Object val : vals) {
@@ -47,16 +54,84 @@ class Utils {
                     throw new IllegalArgumentException("improper type to sha1");
                 }
             }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
+            return hexDigest(md);
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        } finally {
+            Metrics.stop("hash", start);
+        }
+    }
+
+    /** Returns the SHA-1 hash of the contents of FILE, which is read in
+     *  fixed-size buffers so that memory use does not depend on its size.
+     *  Throws IllegalArgumentException in case of problems. */
+    static String sha1File(File file) {
+        return hashAndCopy(file, null);
+    }
+
+    /** Copy FILE into DIR under the name of its SHA-1 hash, reading FILE
+     *  only once, and return the hash.  The copy is written to a temporary
+     *  file in the tmp directory beside DIR while the hash is computed and
+     *  then renamed into place; if DIR or a pack beside it already holds
+     *  that object, the copy is discarded.  If DIR is null, only the hash
+     *  is computed.  Throws IllegalArgumentException in case of problems. */
+    static String hashAndCopy(File file, File dir) {
+        if (!file.isFile()) {
+            throw new IllegalArgumentException("must be a normal file");
+        }
+        long start = Metrics.start();
+        File temp = null;
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] buffer = new byte[BUFFER_SIZE];
+            OutputStream out = null;
+            if (dir != null) {
+                temp = ObjectStore.createTempFile(dir);
+                out = Files.newOutputStream(temp.toPath());
+            }
+            try (InputStream in = Files.newInputStream(file.toPath())) {
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    md.update(buffer, 0, n);
+                    if (out != null) {
+                        out.write(buffer, 0, n);
+                    }
+                }
+            } finally {
+                if (out != null) {
+                    out.close();
+                }
             }
-            return result.toString();
+            String hash = hexDigest(md);
+            Metrics.read("hashAndCopy", file.length());
+            if (temp != null) {
+                File target = join(dir, hash);
+                if (ObjectStore.exists(target)) {
+                    temp.delete();
+                } else {
+                    Files.move(temp.toPath(), target.toPath(),
+                               StandardCopyOption.ATOMIC_MOVE);
+                    ObjectStore.written(target);
+                }
+            }
+            return hash;
+        } catch (IOException excp) {
+            if (temp != null) {
+                temp.delete();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
         } catch (NoSuchAlgorithmException excp) {
             throw new IllegalArgumentException("System does not support SHA-1");
+        } finally {
+            Metrics.stop("hash", start);
         }
     }
 
+    /** Returns the digest of MD as a hexadecimal numeral. */
+    private static String hexDigest(MessageDigest md) {
+        return ObjectId.toHex(md.digest());
+    }
+
     /** Returns the SHA-1 hash of the concatenation of the strings in
      *  VALS. */
     static String sha1(List<Object> vals) {
@@ -97,10 +172,15 @@ class Utils {
         if (!file.isFile()) {
             throw new IllegalArgumentException("must be a normal file");
         }
+        long start = Metrics.start();
         try {
-            return Files.readAllBytes(file.toPath());
+            byte[] result = Files.readAllBytes(file.toPath());
+            Metrics.read("readContents", result.length);
+            return result;
         } catch (IOException excp) {
             throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            Metrics.stop("read", start);
         }
     }
 
@@ -116,6 +196,14 @@ class Utils {
      *  either a String or a byte array.  Throws IllegalArgumentException
      *  in case of problems. */
     static void writeContents(File file, Object... contents) {
+        Metrics.written("writeContents", write(file, contents));
+    }
+
+    /** Write the concatenation of CONTENTS to FILE as writeContents does,
+     *  and return the number of bytes written. */
+    private static long write(File file, Object... contents) {
+        long start = Metrics.start();
+        long length = 0;
         try {
             if (file.isDirectory()) {
                 throw
@@ -124,15 +212,17 @@ class Utils {
             BufferedOutputStream str =
                 new BufferedOutputStream(Files.newOutputStream(file.toPath()));
             for (Object obj : contents) {
-                if (obj instanceof byte[]) {
-                    str.write((byte[]) obj);
-                } else {
-                    str.write(((String) obj).getBytes(StandardCharsets.UTF_8));
-                }
+                byte[] bytes = obj instanceof byte[] ? (byte[]) obj
+                        : ((String) obj).getBytes(StandardCharsets.UTF_8);
+                str.write(bytes);
+                length += bytes.length;
             }
             str.close();
+            return length;
         } catch (IOException | ClassCastException excp) {
             throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            Metrics.stop("write", start);
         }
     }
 
@@ -140,21 +230,25 @@ class Utils {
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
                                                  Class<T> expectedClass) {
+        long start = Metrics.start();
         try {
             ObjectInputStream in =
                 new ObjectInputStream(new FileInputStream(file));
             T result = expectedClass.cast(in.readObject());
             in.close();
+            Metrics.read("readObject", file.length());
             return result;
         } catch (IOException | ClassCastException
                  | ClassNotFoundException excp) {
             throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            Metrics.stop("deserialize", start);
         }
     }
 
     /** Write OBJ to FILE. */
     static void writeObject(File file, Serializable obj) {
-        writeContents(file, serialize(obj));
+        Metrics.written("writeObject", write(file, serialize(obj)));
     }
 
     /* DIRECTORIES */
@@ -209,6 +303,7 @@ class Utils {
 
     /** Returns a byte array containing the serialized contents of OBJ. */
     static byte[] serialize(Serializable obj) {
+        long start = Metrics.start();
         try {
             ByteArrayOutputStream stream = new ByteArrayOutputStream();
             ObjectOutputStream objectStream = new ObjectOutputStream(stream);
@@ -217,6 +312,28 @@ class Utils {
             return stream.toByteArray();
         } catch (IOException excp) {
             throw error("Internal error serializing commit.");
+        } finally {
+            Metrics.stop("serialize", start);
+        }
+    }
+
+    /** Return an object of type T deserialized from BYTES, casting it to
+     *  EXPECTEDCLASS.  Throws IllegalArgumentException in case of
+     *  problems. */
+    static <T extends Serializable> T deserialize(byte[] bytes,
+                                                  Class<T> expectedClass) {
+        long start = Metrics.start();
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(bytes));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            Metrics.stop("deserialize", start);
         }
     }
 
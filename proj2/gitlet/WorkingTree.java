@@ -0,0 +1,101 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/** Walks a working tree, listing the plain files in it and in all of its
+ *  subdirectories by their paths relative to its top, with '/' between
+ *  directories.
+ *
+ *  The .gitlet directory and whatever the tree's .gitletignore file
+ *  ignores are left out; an ignored directory is not even listed.  Each
+ *  directory is listed by its own fork-join task, so the subdirectories
+ *  of a directory are walked in parallel.  Symbolic links to directories
+ *  are not followed.
+ *  @author skye-ye
+ */
+class WorkingTree {
+
+    /** Return the paths of the files in the working tree whose top is
+     *  ROOT, sorted. */
+    static List<String> list(File root) {
+        IgnoreRules rules = IgnoreRules.fromDir(root);
+        ListTask task = new ListTask(root, "", rules);
+        List<String> result = ForkJoinPool.commonPool().invoke(task);
+        Collections.sort(result);
+        Metrics.count("worktree.dirs", task.dirs);
+        Metrics.count("worktree.pruned", task.pruned);
+        Metrics.count("worktree.files", result.size());
+        return result;
+    }
+
+    /** Lists one directory and, through subtasks, the directories under
+     *  it.  The directories listed and pruned are counted in the task
+     *  rather than in Metrics, whose counters are shared by all threads,
+     *  and reported once by list.  Like every fork-join task it is
+     *  nominally Serializable, but it is never serialized. */
+    @SuppressWarnings("serial")
+    private static class ListTask extends RecursiveTask<List<String>> {
+        /** The directory. */
+        private final File dir;
+        /** The path of the directory followed by a separator, or "" for
+         *  the top of the tree. */
+        private final String prefix;
+        /** The ignore rules of the tree. */
+        private final IgnoreRules rules;
+        /** The number of directories listed by this task and its
+         *  subtasks. */
+        private int dirs;
+        /** The number of ignored directories skipped by this task and
+         *  its subtasks. */
+        private int pruned;
+
+        ListTask(File dir, String prefix, IgnoreRules rules) {
+            this.dir = dir;
+            this.prefix = prefix;
+            this.rules = rules;
+        }
+
+        @Override
+        protected List<String> compute() {
+            List<String> result = new ArrayList<>();
+            String[] names = dir.list();
+            if (names == null) {
+                return result;
+            }
+            dirs += 1;
+            List<ListTask> subtasks = new ArrayList<>();
+            for (String name : names) {
+                if (prefix.isEmpty() && name.equals(".gitlet")) {
+                    continue;
+                }
+                File file = new File(dir, name);
+                String path = prefix + name;
+                if (Files.isDirectory(file.toPath(),
+                        LinkOption.NOFOLLOW_LINKS)) {
+                    if (rules.isIgnored(path, true)) {
+                        pruned += 1;
+                    } else {
+                        subtasks.add(new ListTask(file,
+                                path + Tree.SEPARATOR, rules));
+                    }
+                } else if (file.isFile() && !rules.isIgnored(path, false)) {
+                    result.add(path);
+                }
+            }
+            invokeAll(subtasks);
+            for (ListTask subtask : subtasks) {
+                result.addAll(subtask.join());
+                dirs += subtask.dirs;
+                pruned += subtask.pruned;
+            }
+            return result;
+        }
+    }
+}
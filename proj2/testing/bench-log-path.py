@@ -0,0 +1,78 @@
+"""Benchmark of gitlet log -- PATH.
+
+Usage: python3 bench-log-path.py [--progdir=DIR] [--commits=N] [--files=N]
+
+Builds a repository of N commits in a temporary directory, each editing
+one of the given number of files chosen by a seeded random generator,
+then runs "log -- PATH" for a few of the files with GITLET_METRICS set.
+For each path it prints how many commits were on the first-parent chain,
+how many of them the changed-path Bloom filters let log skip without
+reading the commit, the false positives, and the time taken next to that
+of a plain log.
+"""
+
+import random, sys, time
+from getopt import getopt
+from os import environ
+from os.path import abspath, join
+from shutil import rmtree
+from subprocess import run, PIPE
+from tempfile import mkdtemp
+
+def gitlet(progdir, cwd, args, stdin=None):
+    env = dict(environ, GITLET_METRICS="1")
+    start = time.perf_counter()
+    result = run(["java", "-cp", progdir, "gitlet.Main"] + args, cwd=cwd,
+                 input=stdin, stdout=PIPE, stderr=PIPE, env=env,
+                 universal_newlines=True, check=True)
+    elapsed = time.perf_counter() - start
+    metrics = {}
+    for line in result.stderr.splitlines():
+        name, _, value = line.partition(": ")
+        if value.isdigit():
+            metrics[name] = int(value)
+    return result.stdout, metrics, elapsed
+
+def build(progdir, cwd, commits, files):
+    # A batch reads the working files when it runs, so each batch edits
+    # a file at most once.
+    rand = random.Random(61)
+    script = ["init"]
+    edited = set()
+    for i in range(commits):
+        name = "f%d.txt" % rand.randrange(files)
+        if name in edited:
+            gitlet(progdir, cwd, ["batch"], "\n".join(script) + "\n")
+            script = []
+            edited.clear()
+        edited.add(name)
+        with open(join(cwd, name), "w") as out:
+            out.write("version %d\n" % i)
+        script += ["add %s" % name, "commit 'edit %s %d'" % (name, i)]
+    gitlet(progdir, cwd, ["batch"], "\n".join(script) + "\n")
+
+def main():
+    opts, _ = getopt(sys.argv[1:], "", ["progdir=", "commits=", "files="])
+    opts = dict(opts)
+    progdir = abspath(opts.get("--progdir", ".."))
+    commits = int(opts.get("--commits", 1000))
+    files = int(opts.get("--files", 50))
+    cwd = mkdtemp(prefix="gitlet-bench-")
+    try:
+        build(progdir, cwd, commits, files)
+        _, _, full = gitlet(progdir, cwd, ["log"])
+        print("%d commits over %d files; plain log: %.3fs"
+              % (commits, files, full))
+        print("%-10s %8s %8s %8s %8s %8s" % ("path", "shown", "skipped",
+                                           "loaded", "false+", "time"))
+        for name in ["f0.txt", "f%d.txt" % (files // 2), "missing.txt"]:
+            out, metrics, elapsed = gitlet(progdir, cwd, ["log", "--", name])
+            print("%-10s %8d %8d %8d %8d %7.3fs"
+                  % (name, out.count("==="), metrics.get("log.skipped", 0),
+                     metrics.get("log.loaded", 0),
+                     metrics.get("log.false-positives", 0), elapsed))
+    finally:
+        rmtree(cwd)
+
+if __name__ == "__main__":
+    main()